@@ -0,0 +1,59 @@
+package ch.zhaw.pm2.multichat.benchmarks;
+
+import ch.zhaw.pm2.multichat.protocol.ConnectionHandler;
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Connection handler without a connection, used to benchmark the protocol code of {@link ConnectionHandler}.
+ * Sent frames are only encoded, the encoded bytes are kept until the next frame is sent.
+ */
+class BenchmarkConnectionHandler extends ConnectionHandler {
+    private byte[] lastEncoded;
+
+    BenchmarkConnectionHandler(WireFormat wireFormat) {
+        super(null);
+        this.wireFormat = wireFormat;
+    }
+
+    Frame parse(String data) {
+        return parseData(data);
+    }
+
+    byte[] getLastEncoded() {
+        return lastEncoded;
+    }
+
+    @Override
+    protected void sendFrame(EncodedFrame frame) {
+        try {
+            lastEncoded = frame.getBytes(wireFormat);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void processData(Frame frame) {
+    }
+
+    @Override
+    public void startConnectionHandler() {
+    }
+
+    @Override
+    public void stopConnectionHandler() {
+    }
+
+    @Override
+    public void closeConnectionHandler() {
+    }
+
+    @Override
+    public void unregisteredConnectionHandler(Exception e) {
+    }
+}
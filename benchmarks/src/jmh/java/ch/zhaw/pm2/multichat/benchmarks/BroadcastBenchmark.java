@@ -0,0 +1,150 @@
+package ch.zhaw.pm2.multichat.benchmarks;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import ch.zhaw.pm2.multichat.protocol.NioNetworkServer;
+import ch.zhaw.pm2.multichat.server.BroadcastEngine;
+import ch.zhaw.pm2.multichat.server.ServerConfig;
+import ch.zhaw.pm2.multichat.server.ServerConnectionHandler;
+import ch.zhaw.pm2.multichat.server.ServerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark of the broadcast fan-out of a message to 10, 100 and 1000 {@link ServerConnectionHandler} recipients.
+ * <p>The recipients are real loopback connections served by the non-blocking transport, the client ends are drained
+ * by a single thread so the writers are never stalled. Each operation waits until all recipients have received the
+ * message, so the measured time covers the whole fan-out including the socket writes of the writer pool, and no
+ * frame is dropped by a full outbound queue. Heartbeats are disabled so only the broadcast frames are counted.</p>
+ * <p>Each recipient needs two file descriptors, so the run with 1000 recipients requires a limit of open files
+ * above 2000 (e.g. {@code ulimit -n 4096}).</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int recipients;
+
+    private ServerContext context;
+    private BroadcastEngine broadcastEngine;
+    private NioNetworkServer<Serializable> server;
+    private final List<ServerConnectionHandler> handlers = new ArrayList<>();
+    private final List<SocketChannel> clients = new ArrayList<>();
+    private Selector drainSelector;
+    private Thread drainThread;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private long bytesPerBroadcast;
+    private Frame frame;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        ServerConfig config = new ServerConfig().setHeartbeatIntervalMillis(0);
+        context = new ServerContext(config);
+        broadcastEngine = context.getBroadcastEngine();
+        server = NetworkHandler.createNioServer(0, config.getEventLoops());
+        drainSelector = Selector.open();
+        InetSocketAddress address = new InetSocketAddress(NetworkHandler.DEFAULT_ADDRESS, server.getHostPort());
+        for (int i = 0; i < recipients; i++) {
+            SocketChannel client = SocketChannel.open(address);
+            client.configureBlocking(false);
+            client.register(drainSelector, SelectionKey.OP_READ);
+            clients.add(client);
+            handlers.add(new ServerConnectionHandler(server.waitForConnection(), context));
+        }
+        drainThread = new Thread(this::drain, "drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+        frame = new Frame("alice", "*", "MESSAGE", "Hello everybody");
+        bytesPerBroadcast = measureBroadcastSize();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        drainSelector.close();
+        drainThread.join(1000);
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        server.close();
+        context.shutdown();
+    }
+
+    @Benchmark
+    public int broadcast() {
+        long expected = bytesReceived.get() + bytesPerBroadcast;
+        int sent = broadcastEngine.broadcast(frame, handlers);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (bytesReceived.get() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Broadcast not received by all recipients");
+            }
+            Thread.yield();
+        }
+        return sent;
+    }
+
+    /**
+     * Sends one broadcast and waits until the received bytes do not change anymore.
+     * @return number of bytes received by all clients together for one broadcast
+     */
+    private long measureBroadcastSize() throws InterruptedException {
+        broadcastEngine.broadcast(frame, handlers);
+        long received;
+        do {
+            received = bytesReceived.get();
+            Thread.sleep(200);
+        } while (received == 0 || bytesReceived.get() != received);
+        if (context.getMetrics().getDroppedFrames() > 0) {
+            throw new IllegalStateException("Frames dropped while measuring the broadcast size");
+        }
+        return received;
+    }
+
+    /**
+     * Reads and discards everything the server sends to the clients.
+     */
+    private void drain() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (drainSelector.isOpen()) {
+                drainSelector.select();
+                Iterator<SelectionKey> keys = drainSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    buffer.clear();
+                    int read = ((SocketChannel) key.channel()).read(buffer);
+                    if (read < 0) {
+                        key.cancel();
+                    } else {
+                        bytesReceived.addAndGet(read);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // selector closed at the end of the benchmark
+        }
+    }
+}
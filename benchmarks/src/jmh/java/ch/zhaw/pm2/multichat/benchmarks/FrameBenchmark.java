@@ -0,0 +1,53 @@
+package ch.zhaw.pm2.multichat.benchmarks;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the protocol code of a single frame: parsing the legacy text representation
+ * ({@code ConnectionHandler.parseData}) and encoding an outgoing frame ({@code ConnectionHandler.sendData}) in both
+ * wire formats, and with compressed payloads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameBenchmark {
+
+    @Param({"SERIALIZED", "BINARY", "BINARY_COMPRESSED"})
+    public WireFormat wireFormat;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private BenchmarkConnectionHandler handler;
+    private String payload;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        handler = new BenchmarkConnectionHandler(wireFormat);
+        payload = "x".repeat(payloadSize);
+        text = new Frame("alice", "bob", "MESSAGE", payload).toText();
+    }
+
+    @Benchmark
+    public Frame parseData() {
+        return handler.parse(text);
+    }
+
+    @Benchmark
+    public byte[] sendData() {
+        handler.sendData("alice", "bob", "MESSAGE", payload);
+        return handler.getLastEncoded();
+    }
+}
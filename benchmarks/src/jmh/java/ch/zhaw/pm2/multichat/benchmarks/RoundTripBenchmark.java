@@ -0,0 +1,103 @@
+package ch.zhaw.pm2.multichat.benchmarks;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of a {@link NetworkHandler.NetworkConnection} send/receive round trip over the loopback interface.
+ * An echo receiver on the server side sends every received object back unchanged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+
+    @Param({"SERIALIZED", "BINARY"})
+    public WireFormat wireFormat;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private NetworkHandler.NetworkServer<Serializable> server;
+    private NetworkHandler.BlockingConnection<Serializable> client;
+    private Thread acceptThread;
+    private Serializable data;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = NetworkHandler.createServer(0);
+        acceptThread = new Thread(this::accept, "accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        client = NetworkHandler.openConnection(NetworkHandler.DEFAULT_ADDRESS, server.getHostPort());
+        client.setTcpNoDelay(true);
+        Frame frame = new Frame("alice", "bob", "MESSAGE", "x".repeat(payloadSize));
+        data = wireFormat == WireFormat.BINARY ? frame : frame.toText();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        client.close();
+        server.close();
+        acceptThread.join(1000);
+    }
+
+    @Benchmark
+    public Serializable roundTrip() throws IOException, ClassNotFoundException {
+        client.send(data);
+        return client.receive();
+    }
+
+    private void accept() {
+        try {
+            NetworkHandler.NetworkConnection<Serializable> connection = server.waitForConnection();
+            connection.setTcpNoDelay(true);
+            connection.startReceiving(new Echo(connection));
+        } catch (IOException e) {
+            // server closed at the end of the benchmark
+        }
+    }
+
+    /**
+     * Sends every received object back through the same connection.
+     */
+    private static class Echo implements NetworkHandler.Receiver<Serializable> {
+        private final NetworkHandler.NetworkConnection<Serializable> connection;
+
+        Echo(NetworkHandler.NetworkConnection<Serializable> connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void received(Serializable data) {
+            try {
+                connection.send(data);
+            } catch (IOException e) {
+                // connection closed at the end of the benchmark
+            }
+        }
+
+        @Override
+        public void terminated(IOException cause) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -1,44 +1,72 @@
 package ch.zhaw.pm2.multichat.client;
 
-import ch.zhaw.pm2.multichat.client.ClientConnectionHandler.State;
+import ch.zhaw.pm2.multichat.protocol.ChatClient.State;
 import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
 import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.scene.Node;
 import javafx.scene.control.Button;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.skin.VirtualFlow;
 import javafx.scene.layout.Pane;
 import javafx.stage.WindowEvent;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static ch.zhaw.pm2.multichat.client.ClientConnectionHandler.State.*;
+import static ch.zhaw.pm2.multichat.protocol.ChatClient.State.*;
 
 /**
  * Class which is the GUI component for the chat window.
  * It is the JavaFX Application and has the controller role.
+ * <p>Received messages are not shown one by one: they are queued and added to the message list once per pulse
+ * (frame) of the UI, so a busy chat costs one list update per frame instead of one UI task per message. The list
+ * only renders the visible lines and keeps the latest {@code multichat.client.scrollback} lines (default 10000).</p>
  */
 
 public class ChatWindowController {
     private static final Logger logger = Logger.getLogger(ChatWindowController.class.getCanonicalName());
+    private static final int SCROLLBACK = Math.max(1, Integer.getInteger("multichat.client.scrollback", 10000));
     private final Pattern messagePattern = Pattern.compile( "^(?:@(\\w*))?\\s*(.*)$" );
+    private final Pattern roomCommandPattern = Pattern.compile( "^/(join|leave)\\s+#?(\\w+)\\s*$" );
+    private final Pattern roomMessagePattern = Pattern.compile( "^#(\\w+)\\s*(.*)$" );
     private ClientConnectionHandler connectionHandler;
 
     private WindowCloseHandler windowCloseHandler = new WindowCloseHandler();
+    // messages received since the last pulse, added by the receiver thread
+    private final Queue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+    // the timer runs only while messages are pending, so an idle window does not request pulses
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AnimationTimer messageDrain = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drainMessages();
+        }
+    };
 
     @FXML private Pane rootPane;
     @FXML private TextField serverAddressField;
     @FXML private TextField serverPortField;
     @FXML private TextField userNameField;
     @FXML private TextField messageField;
-    @FXML private TextArea messageArea;
+    @FXML private ListView<String> messageList;
     @FXML private Button connectButton;
     @FXML private Button sendButton;
 
@@ -98,8 +126,18 @@ public class ChatWindowController {
             return;
         }
         String messageString = messageField.getText().strip();
+        Matcher roomCommand = roomCommandPattern.matcher(messageString);
+        Matcher roomMessage = roomMessagePattern.matcher(messageString);
         Matcher matcher = messagePattern.matcher(messageString);
-        if (matcher.find()) {
+        if (roomCommand.find()) {
+            if ("join".equals(roomCommand.group(1))) {
+                connectionHandler.joinRoom(roomCommand.group(2));
+            } else {
+                connectionHandler.leaveRoom(roomCommand.group(2));
+            }
+        } else if (roomMessage.find()) {
+            connectionHandler.postRoomMessage(roomMessage.group(1), roomMessage.group(2));
+        } else if (matcher.find()) {
             String receiver = matcher.group(1);
             String message = matcher.group(2);
             if (receiver == null || receiver.isBlank()) receiver = ClientConnectionHandler.USER_ALL;
@@ -116,6 +154,7 @@ public class ChatWindowController {
         connectionHandler = new ClientConnectionHandler(
             NetworkHandler.openConnection(serverAddress, serverPort), userName);
         subscribeUserMessage();
+        subscribeReconnect();
         subscribeUserName();
         subscribeServerAddress();
         subscribeServerPort();
@@ -195,22 +234,91 @@ public class ChatWindowController {
         });
     }
 
+    /**
+     * Reconnects after the delay suggested by the server, e.g. when it restarts. The server chooses a random delay
+     * for every client, so the clients do not all reconnect at the same time.
+     */
+    private void subscribeReconnect() {
+        connectionHandler.subscribeReconnect(delayMillis -> CompletableFuture
+            .delayedExecutor(delayMillis, TimeUnit.MILLISECONDS)
+            .execute(() -> Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    // unless the user has connected again in the meantime
+                    if (connectionHandler == null) {
+                        showMessage("[INFO] Reconnecting...\n");
+                        connect();
+                    }
+                }
+            })));
+    }
+
     private void writeError(String message) {
-        this.messageArea.appendText(String.format("[ERROR] %s\n", message));
+        showMessage(String.format("[ERROR] %s\n", message));
     }
 
     private void subscribeUserMessage() {
-        connectionHandler.subscribeMessage(new ChangeListener<String>() {
-            @Override
-            public void changed(ObservableValue<? extends String> observableValue, String oldValue, String newValue) {
-                Platform.runLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        messageArea.appendText(newValue);
-                    }
-                });
+        connectionHandler.subscribeMessage(this::showMessage);
+    }
+
+    /**
+     * Queues a message to be shown at the next pulse. May be called by any thread.
+     * @param message   text line to show
+     */
+    private void showMessage(String message) {
+        pendingMessages.add(message.endsWith("\n") ? message.substring(0, message.length() - 1) : message);
+        if (drainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(messageDrain::start);
+        }
+    }
+
+    /**
+     * Adds the pending messages to the list, dropping the oldest lines beyond the scrollback, and stops the timer
+     * once no messages are pending anymore. Called by the timer on the UI thread once per pulse.
+     * The list only follows the new messages if its last line was visible before, so a user reading older
+     * messages is not scrolled away.
+     */
+    private void drainMessages() {
+        List<String> messages = new ArrayList<>();
+        String message;
+        while ((message = pendingMessages.poll()) != null) {
+            messages.add(message);
+        }
+        if (messages.isEmpty()) {
+            messageDrain.stop();
+            drainScheduled.set(false);
+            // a message queued after the poll did not schedule the timer, because it was still running
+            if (!pendingMessages.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+                messageDrain.start();
             }
-        });
+            return;
+        }
+        ObservableList<String> items = messageList.getItems();
+        boolean follow = isLastLineVisible(items.size() - 1);
+        if (messages.size() > SCROLLBACK) {
+            messages = messages.subList(messages.size() - SCROLLBACK, messages.size());
+        }
+        items.addAll(messages);
+        if (items.size() > SCROLLBACK) {
+            items.remove(0, items.size() - SCROLLBACK);
+        }
+        if (follow) {
+            messageList.scrollTo(items.size() - 1);
+        }
+    }
+
+    /**
+     * Checks whether the line with the given index is shown in the message list.
+     * @param last  index of the last line of the list
+     * @return true if the line is visible, the list is empty or not rendered yet
+     */
+    private boolean isLastLineVisible(int last) {
+        Node flow = messageList.lookup(".virtual-flow");
+        if (last < 0 || !(flow instanceof VirtualFlow)) {
+            return true;
+        }
+        IndexedCell<?> cell = ((VirtualFlow<?>) flow).getLastVisibleCell();
+        return cell == null || cell.getIndex() >= last;
     }
 
     class WindowCloseHandler implements EventHandler<WindowEvent> {
@@ -1,108 +1,69 @@
 package ch.zhaw.pm2.multichat.client;
 
+import ch.zhaw.pm2.multichat.protocol.ChatClient;
+import ch.zhaw.pm2.multichat.protocol.ChatClient.State;
+import ch.zhaw.pm2.multichat.protocol.ChatClientListener;
 import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
-import ch.zhaw.pm2.multichat.protocol.ConnectionHandler;
 import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
 import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.logging.Level;
-import static ch.zhaw.pm2.multichat.client.ClientConnectionHandler.State.*;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import static ch.zhaw.pm2.multichat.protocol.ChatClient.State.*;
 
 /**
- * This class implements the communication protocol on client side.
+ * JavaFX binding of the {@link ChatClient}.
+ * The connection values (user, server address and port, state) are published as observable properties, the
+ * messages are formatted as text lines and passed to the message subscribers. Messages are not published as a
+ * property, so identical consecutive messages are not lost.
  */
-public class ClientConnectionHandler extends ConnectionHandler {
-    public static final String USER_ALL = "*";
-    private State state = NEW;
-    private LinkedBlockingQueue<Message> queue;
-    private StringPropertyBase observableMessage;
-    private StringPropertyBase observableUser;
-    private StringPropertyBase observableServerAddress;
-    private ObjectPropertyBase<State> observableState;
-    private IntegerPropertyBase observableServerPort;
-    private Thread senderThread;
-    private Thread receiverThread;
+public class ClientConnectionHandler implements ChatClientListener {
+    public static final String USER_ALL = ChatClient.USER_ALL;
+    private final ChatClient client;
+    private final List<Consumer<String>> messageSubscribers = new CopyOnWriteArrayList<>();
+    private final List<LongConsumer> reconnectSubscribers = new CopyOnWriteArrayList<>();
+    private final StringPropertyBase observableUser = new SimpleStringProperty();
+    private final StringPropertyBase observableServerAddress = new SimpleStringProperty();
+    private final IntegerPropertyBase observableServerPort = new SimpleIntegerProperty();
+    private final ObjectPropertyBase<State> observableState = new SimpleObjectProperty<>();
 
     /**
-     * Constructor creates a new ClientConnectionHandler object and starts new sender and receiver threads.
-     * Creates a new connection and initializes data structures that are needed for a
-     * separation of the UI thread.
+     * Constructor creates a new ClientConnectionHandler object and the underlying {@link ChatClient}, which starts
+     * the sender and receiver threads.
      * @param connection network connection through server port and server address
      * @param userName  user's name
      */
-    public ClientConnectionHandler(NetworkHandler.NetworkConnection<String> connection,
+    public ClientConnectionHandler(NetworkHandler.NetworkConnection<Serializable> connection,
                                    String userName)  {
-        super(connection);
-        this.userName = (userName == null || userName.isBlank())? USER_NONE : userName;
-        queue = new LinkedBlockingQueue<>();
-        observableMessage = new SimpleStringProperty();
-        observableUser = new SimpleStringProperty();
-        observableServerAddress = new SimpleStringProperty();
-        observableServerPort = new SimpleIntegerProperty();
-        observableState = new SimpleObjectProperty<>();
-
-        senderThread = new Thread(new SenderThread());
-        receiverThread = new Thread(this::startReceiving);
-        senderThread.start();
-        receiverThread.start();
-    }
-
-    enum State {
-        NEW, CONFIRM_CONNECT, CONNECTED, CONFIRM_DISCONNECT, DISCONNECTED;
+        client = new ChatClient(connection, userName);
+        client.addListener(this);
     }
 
     public State getState() {
-        return this.state;
+        return client.getState();
     }
 
     public void setState (State newState) {
-        this.state = newState;
-        observableState.set(newState);
-    }
-
-    /**
-     * Starts the connection handler.
-     */
-    @Override
-    public void startConnectionHandler() {
-        logger.info("Starting Connection Handler");
-    }
-
-    /**
-     * Starts the connection handler.
-     */
-    @Override
-    public void stopConnectionHandler() {
-        logger.info("Stopped Connection Handler");
-    }
-
-    /**
-     * Closes the connection handler.
-     * Interrupts the sender and the receiver threads to clean up
-     * to avoid leaking resources
-     */
-    @Override
-    public void closeConnectionHandler() {
-        logger.info("Closing Connection Handler to Server");
-        senderThread.interrupt();
-        receiverThread.interrupt();
+        client.setState(newState);
     }
 
     /**
-     * Handles unregistered connection handler
-     * @param e exception thrown with warning message
+     * Subscribes the messages to display, formatted as text lines. Every message is passed, also if it is identical
+     * to the previous one.
      */
-     @Override
-    public void unregisteredConnectionHandler(Exception e) {
-        logger.log(Level.WARNING, "Unregistered because connection terminated {0}", e.getMessage());
+    public void subscribeMessage(Consumer<String> subscriber) {
+        messageSubscribers.add(subscriber);
     }
 
     /**
-     * Subscribes changes of messages from user input.
+     * Subscribes the reconnect delays suggested by the server when it closes the connection, e.g. on shutdown.
      */
-    public void subscribeMessage(ChangeListener<? super String> listener){
-        observableMessage.addListener(listener);
+    public void subscribeReconnect(LongConsumer subscriber) {
+        reconnectSubscribers.add(subscriber);
     }
 
     /**
@@ -133,160 +94,113 @@ public class ClientConnectionHandler extends ConnectionHandler {
         observableState.addListener(listener);
     }
 
-    private void processDataTypeConnect(){
-        logger.warning("Illegal connect request from server");
+    /**
+     * Connects to server.
+     * @throws ChatProtocolException Thrown n case of an illegal state for connect
+     */
+    public void connect() throws ChatProtocolException {
+        client.connect();
     }
 
-    private void processDataTypeConfirm(){
-        if (state == CONFIRM_CONNECT) {
-            this.userName = reciever;
-            observableUser.set(userName);
-            observableServerPort.set(connection.getRemotePort());
-            observableServerAddress.set(connection.getRemoteHost());
-            String writtenMessage = String.format("[INFO] %s\n", payload);
-            observableMessage.set(writtenMessage);
-            logger.info("CONFIRM: " + payload);
-            this.setState(CONNECTED);
-        } else if (state == CONFIRM_DISCONNECT) {
-            String writtenMessage = String.format("[INFO] %s\n", payload);
-            observableMessage.set(writtenMessage);
-            logger.log(Level.INFO,"CONFIRM: {0}",  payload);
-            this.setState(DISCONNECTED);
-        } else {
-            logger.log(Level.WARNING,"Got unexpected confirm message: {0}", payload);
-        }
+    /**
+     * Disconnects to server.
+     * @throws ChatProtocolException Thrown n case of an illegal state for disconnect
+     */
+    public void disconnect() throws ChatProtocolException {
+        client.disconnect();
     }
 
-    private void processDataTypeDisconnected(){
-        if (state == DISCONNECTED) {
-            logger.log(Level.INFO,"DISCONNECT: Already in disconnected: {0}", payload);
-            return;
-        }
-        String writtenMessage = String.format("[INFO] %s\n", payload);
-        observableMessage.set(writtenMessage);
-        logger.log(Level.INFO,"DISCONNECT: {0}", payload);
-        this.setState(DISCONNECTED);
+    /**
+     * Post message and puts it into a queue.
+     * @param receiver Recipient of the chat
+     * @param message Message from the User which is the sender
+     */
+    public void postMessage(String receiver, String message) {
+        client.postMessage(receiver, message);
     }
 
-    private void processDataTypeMessage() {
-        if (state != CONNECTED) {
-            logger.log(Level.INFO, "MESSAGE: Illegal state {0} for message: {1}", new Object[]{state, payload});
-            return;
-        }
-        String writtenMessage = String.format("[%s -> %s] %s\n", sender, reciever, payload);
-        observableMessage.set(writtenMessage);
-        logger.log(Level.INFO, "MESSAGE: From {0} to {1}: {2}}", new Object[]{sender, reciever, payload});
+    /**
+     * Joins a room.
+     * @param room  name of the room
+     */
+    public void joinRoom(String room) {
+        client.joinRoom(room);
     }
 
-    private String constructUserErrorMessage(String errorMessage) {
-        return String.format("[ERROR] %s\n", errorMessage);
+    /**
+     * Leaves a room.
+     * @param room  name of the room
+     */
+    public void leaveRoom(String room) {
+        client.leaveRoom(room);
     }
 
-    private void processDataTypeError() {
-        String writtenMessage = constructUserErrorMessage(payload);
-        observableMessage.set(writtenMessage);
-        logger.log(Level.WARNING,"ERROR: {0}", payload);
+    /**
+     * Posts a message to the members of a room.
+     * @param room      name of the room
+     * @param message   message from the user which is the sender
+     */
+    public void postRoomMessage(String room, String message) {
+        client.postRoomMessage(room, message);
     }
 
     /**
-     * Processes user inputs depending on the data type.
-     * @param data  user inputs
+     * Stops receiving messages and closes the connection.
      */
+    public void stopReceiving() {
+        client.stopReceiving();
+    }
+
     @Override
-    public void processData(String data) {
-        parseData(data);
-        // dispatch operation based on type parameter
-        switch (type) {
-            case DATA_TYPE_CONNECT:
-                processDataTypeConnect();
-                break;
-            case DATA_TYPE_CONFIRM:
-                processDataTypeConfirm();
-                break;
-            case DATA_TYPE_DISCONNECT:
-                processDataTypeDisconnected();
-                break;
-            case DATA_TYPE_MESSAGE:
-                processDataTypeMessage();
-                break;
-            case DATA_TYPE_ERROR:
-                processDataTypeError();
-                break;
-            default:
-                logger.log(Level.WARNING, "Unknown data type received: {0}", type);
-                break;
-        }
+    public void messageReceived(String sender, String receiver, String message) {
+        publishMessage(String.format("[%s -> %s] %s\n", sender, receiver, message));
     }
 
-    /**
-     * Connects to server.
-     * Sends data of user input.
-     * Sets the state of the connection
-     * @throws ChatProtocolException Thrown n case of an illegal state for connect
-     */
-    public void connect() throws ChatProtocolException {
-        if (state != NEW) throw new ChatProtocolException("Illegal state for connect: " + state);
-        this.sendData(userName, USER_NONE, DATA_TYPE_CONNECT,null);
-        this.setState(CONFIRM_CONNECT);
+    @Override
+    public void roomMessageReceived(String sender, String room, String message) {
+        publishMessage(String.format("[%s -> #%s] %s\n", sender, room, message));
     }
 
-    /**
-     * Disconnects to server.
-     * Sends data of user input.
-     * Sets the state of the connection
-     * @throws ChatProtocolException Thrown n case of an illegal state for disconnect
-     */
-    public void disconnect() throws ChatProtocolException {
-        if (state != NEW && state != CONNECTED) throw new ChatProtocolException("Illegal state for disconnect: " + state);
-        this.sendData(userName, USER_NONE, DATA_TYPE_DISCONNECT,null);
-        this.setState(CONFIRM_DISCONNECT);
+    @Override
+    public void roomJoined(String user, String room) {
+        publishMessage(String.format("[INFO] %s joined #%s\n", user, room));
     }
 
-    private void message(String receiver, String message) throws ChatProtocolException {
-        if (state != CONNECTED) throw new ChatProtocolException("Illegal state for message: " + state);
-        this.sendData(userName, receiver, DATA_TYPE_MESSAGE, message);
+    @Override
+    public void roomLeft(String user, String room) {
+        publishMessage(String.format("[INFO] %s left #%s\n", user, room));
     }
 
-    /**
-     * Post message and puts it into a queue.
-     * @param receiver Recipient of the chat
-     * @param message Message from the User which is the sender
-     * @throws InterruptedException Thrown when interrupted.
-     */
-    public void postMessage(String receiver, String message) {
-        try {
-            queue.put(new Message(receiver, message));
-        } catch (InterruptedException ignored) {}
+    @Override
+    public void infoReceived(String info) {
+        publishMessage(String.format("[INFO] %s\n", info));
     }
 
-    private class SenderThread implements Runnable {
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    Message message = queue.take();
-                    try {
-                        message(message.receiver, message.message);
-                    } catch (ChatProtocolException e) {
-                        observableMessage.set(constructUserErrorMessage(e.getMessage()));
-                    }
-                } catch (InterruptedException e) {
-                    return;
-                }
-            }
+    @Override
+    public void errorReceived(String error) {
+        publishMessage(String.format("[ERROR] %s\n", error));
+    }
+
+    @Override
+    public void reconnectSuggested(long delayMillis) {
+        for (LongConsumer subscriber : reconnectSubscribers) {
+            subscriber.accept(delayMillis);
         }
     }
 
-    /**
-     * Class that creates a message
-     */
-    public class Message {
-        String receiver;
-        String message;
+    @Override
+    public void stateChanged(State state) {
+        if (state == CONNECTED) {
+            observableUser.set(client.getUserName());
+            observableServerPort.set(client.getServerPort());
+            observableServerAddress.set(client.getServerAddress());
+        }
+        observableState.set(state);
+    }
 
-        public Message(String receiver, String message) {
-            this.receiver = receiver;
-            this.message = message;
+    private void publishMessage(String message) {
+        for (Consumer<String> subscriber : messageSubscribers) {
+            subscriber.accept(message);
         }
     }
 }
@@ -0,0 +1,158 @@
+package ch.zhaw.pm2.multichat.loadtest;
+
+import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless load generator simulating many chat users against a running server.
+ * <p>The generator connects the configured number of users, then sends messages at the target rate for the warmup
+ * and the measurement period: a configurable share as broadcast, the others as private messages to a random user.
+ * Finally it reports the connect times, the throughput and the end-to-end latency percentiles.</p>
+ * <p>The messages are sent open loop: each message has a scheduled send time and carries it as timestamp. If the
+ * senders fall behind (e.g. because the server applies backpressure), the delay is part of the measured latency
+ * instead of being hidden by sending less.</p>
+ * <p>Usage: start the server, then e.g.
+ * {@code java -Dmultichat.loadtest.users=2000 -Dmultichat.loadtest.rate=5000 ch.zhaw.pm2.multichat.loadtest.LoadGenerator}
+ * (see {@link LoadTestConfig} for all options).</p>
+ */
+public class LoadGenerator {
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getCanonicalName());
+    private static final String USER_ALL = "*";
+    // time to receive the messages still in flight at the end of the measurement
+    private static final long DRAIN_MILLIS = 2000;
+
+    private final LoadTestConfig config;
+    private final LoadStatistics statistics = new LoadStatistics();
+    private final List<SimulatedUser> users = Collections.synchronizedList(new ArrayList<>());
+
+    public static void main(String[] args) {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        System.out.println("Load test: " + config);
+        try {
+            new LoadGenerator(config).run();
+        } catch (InterruptedException e) {
+            logger.warning("Load test interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a load generator.
+     * @param config    options of the run
+     */
+    public LoadGenerator(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Runs the load test and prints the report to standard out.
+     * @throws InterruptedException if the run is interrupted
+     */
+    public void run() throws InterruptedException {
+        connectUsers();
+        if (users.isEmpty()) {
+            System.out.println("No user could connect to " + config.getHost() + ":" + config.getPort());
+            return;
+        }
+        sendMessages();
+        Thread.sleep(DRAIN_MILLIS);
+        for (SimulatedUser user : users) {
+            user.disconnect();
+        }
+        statistics.printReport(System.out, config.getUsers(), config.getRate());
+    }
+
+    private void connectUsers() throws InterruptedException {
+        // random run id, so several generators can run against the same server
+        String runId = Integer.toString(ThreadLocalRandom.current().nextInt(0x10000), 16);
+        ExecutorService connectPool = Executors.newFixedThreadPool(config.getConnectThreads());
+        long start = System.nanoTime();
+        for (int i = 0; i < config.getUsers(); i++) {
+            SimulatedUser user = new SimulatedUser("load-" + runId + "-" + i, statistics);
+            connectPool.execute(() -> {
+                try {
+                    user.connect(config.getHost(), config.getPort());
+                    users.add(user);
+                } catch (IOException | ChatProtocolException e) {
+                    logger.log(Level.WARNING, "Connect of {0} failed: {1}", new Object[]{user.getName(), e.getMessage()});
+                    statistics.connectFailed();
+                }
+            });
+        }
+        connectPool.shutdown();
+        connectPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        System.out.printf("Connected %d users in %.1fs%n",
+            users.size(), (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private void sendMessages() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long end = measureStart + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        statistics.setMeasurementWindow(measureStart, end);
+        List<SimulatedUser> senders = new ArrayList<>(users);
+        Thread[] threads = new Thread[config.getSenderThreads()];
+        for (int i = 0; i < threads.length; i++) {
+            Sender sender = new Sender(senders, i, threads.length, start, end);
+            threads[i] = new Thread(sender, "sender-" + i);
+            threads[i].start();
+        }
+        System.out.printf("Sending for %ds warmup and %ds measurement%n",
+            config.getWarmupSeconds(), config.getDurationSeconds());
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Sends an equal share of the target rate, spread evenly over time.
+     */
+    private class Sender implements Runnable {
+        private final List<SimulatedUser> senders;
+        private final long interval;
+        private final long end;
+        private final String padding;
+        private long next;
+
+        Sender(List<SimulatedUser> senders, int index, int senderCount, long start, long end) {
+            this.senders = senders;
+            this.interval = TimeUnit.SECONDS.toNanos(1) * senderCount / config.getRate();
+            this.end = end;
+            this.padding = "x".repeat(config.getPayloadSize());
+            // stagger the senders, so they do not send at the same time
+            this.next = start + interval * index / senderCount;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (next < end) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                SimulatedUser sender = senders.get(random.nextInt(senders.size()));
+                boolean broadcast = random.nextDouble() < config.getBroadcastRatio();
+                String receiver = broadcast ? USER_ALL : senders.get(random.nextInt(senders.size())).getName();
+                try {
+                    sender.send(receiver, LoadStatistics.createPayload(next, padding));
+                    statistics.sent(next, broadcast);
+                } catch (IOException e) {
+                    statistics.error();
+                }
+                next += interval;
+            }
+        }
+    }
+}
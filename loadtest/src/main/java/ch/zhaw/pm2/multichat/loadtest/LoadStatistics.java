@@ -0,0 +1,130 @@
+package ch.zhaw.pm2.multichat.loadtest;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements of a load test run, updated concurrently by the sender and receiver threads.
+ * <p>The end-to-end latency is measured by sending the timestamp of the message in its payload. Since all simulated
+ * users run in the same JVM, the timestamp is taken from {@link System#nanoTime()}. Only messages which were due
+ * after the warmup are counted.</p>
+ */
+public class LoadStatistics {
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LatencyHistogram connectTimes = new LatencyHistogram();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder sentBroadcasts = new LongAdder();
+    private final LongAdder sentPrivates = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder failedConnects = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private volatile long measureStart = Long.MAX_VALUE;
+    private volatile long measureEnd = Long.MAX_VALUE;
+
+    /**
+     * Sets the time window of the measurement.
+     * @param start start of the measurement (after the warmup) in {@link System#nanoTime()} units
+     * @param end   end of the measurement in {@link System#nanoTime()} units
+     */
+    void setMeasurementWindow(long start, long end) {
+        this.measureStart = start;
+        this.measureEnd = end;
+    }
+
+    /**
+     * Creates the payload of a message: the timestamp followed by padding up to the configured size.
+     * @param timestamp timestamp of the message in {@link System#nanoTime()} units
+     * @param padding   padding to append
+     * @return payload of the message
+     */
+    static String createPayload(long timestamp, String padding) {
+        return timestamp + " " + padding;
+    }
+
+    void connected(long connectNanos) {
+        connectTimes.record(connectNanos / NANOS_PER_MICRO);
+    }
+
+    void connectFailed() {
+        failedConnects.increment();
+    }
+
+    void sent(long timestamp, boolean broadcast) {
+        if (timestamp < measureStart || timestamp >= measureEnd) return;
+        if (broadcast) {
+            sentBroadcasts.increment();
+        } else {
+            sentPrivates.increment();
+        }
+    }
+
+    /**
+     * Records a received message, if its timestamp lies in the measurement window.
+     * @param payload   payload of the message, starting with the timestamp
+     * @param now       time of reception in {@link System#nanoTime()} units
+     */
+    void received(String payload, long now) {
+        int end = payload == null ? -1 : payload.indexOf(' ');
+        if (end <= 0) {
+            errors.increment();
+            return;
+        }
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(payload, 0, end, 10);
+        } catch (NumberFormatException e) {
+            errors.increment();
+            return;
+        }
+        if (timestamp < measureStart || timestamp >= measureEnd) return;
+        received.increment();
+        latencies.record((now - timestamp) / NANOS_PER_MICRO);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * Prints the report of the run.
+     * @param out               stream to print to
+     * @param users             number of simulated users
+     * @param targetRate        target rate of sent messages per second
+     */
+    void printReport(PrintStream out, int users, int targetRate) {
+        double seconds = (measureEnd - measureStart) / (double) TimeUnit.SECONDS.toNanos(1);
+        long connected = connectTimes.getCount();
+        long broadcasts = sentBroadcasts.sum();
+        long privates = sentPrivates.sum();
+        long sent = broadcasts + privates;
+        long expected = broadcasts * connected + privates;
+        long delivered = received.sum();
+        out.println("=== Load test report ===");
+        out.printf("Connected users:   %d/%d (%d failed)%n", connected, users, failedConnects.sum());
+        printPercentiles(out, "Connect time [ms]:", connectTimes);
+        out.printf("Sent messages:     %d in %.1fs (%.1f/s, target %d/s): %d broadcast, %d private%n",
+            sent, seconds, sent / seconds, targetRate, broadcasts, privates);
+        out.printf("Received messages: %d of %d expected (%.2f%%, %.1f/s)%n",
+            delivered, expected, expected == 0 ? 0.0 : 100.0 * delivered / expected, delivered / seconds);
+        printPercentiles(out, "Latency [ms]:", latencies);
+        out.printf("Errors:            %d, disconnects: %d%n", errors.sum(), disconnects.sum());
+    }
+
+    private static void printPercentiles(PrintStream out, String title, LatencyHistogram histogram) {
+        out.printf("%-18s p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f mean=%.3f%n", title,
+            histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+            histogram.getValueAtPercentile(90) / MICROS_PER_MILLI,
+            histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+            histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+            histogram.getMax() / MICROS_PER_MILLI,
+            histogram.getMean() / MICROS_PER_MILLI);
+    }
+}
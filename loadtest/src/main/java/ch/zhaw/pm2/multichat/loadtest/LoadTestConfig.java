@@ -0,0 +1,128 @@
+package ch.zhaw.pm2.multichat.loadtest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Options of a load test run.
+ * The values are read from system properties (e.g. {@code -Dmultichat.loadtest.users=2000}), missing or invalid
+ * values fall back to the defaults.
+ */
+public class LoadTestConfig {
+    private static final Logger logger = Logger.getLogger(LoadTestConfig.class.getCanonicalName());
+    private static final String PREFIX = "multichat.loadtest.";
+
+    private String host = "localhost";
+    private int port = 22243;
+    private int users = 1000;
+    private int rate = 1000;
+    private double broadcastRatio = 0.05;
+    private int payloadSize = 64;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int connectThreads = 32;
+    private int senderThreads = 2;
+
+    /**
+     * Creates a configuration using the default values.
+     */
+    public LoadTestConfig() {
+    }
+
+    /**
+     * Creates a configuration from the system properties.
+     * @return configuration with the values of the system properties or the defaults
+     */
+    public static LoadTestConfig fromSystemProperties() {
+        LoadTestConfig config = new LoadTestConfig();
+        config.host = System.getProperty(PREFIX + "host", config.host);
+        config.port = intProperty("port", config.port, 1);
+        config.users = intProperty("users", config.users, 1);
+        config.rate = intProperty("rate", config.rate, 1);
+        config.broadcastRatio = doubleProperty("broadcastRatio", config.broadcastRatio);
+        config.payloadSize = intProperty("payloadSize", config.payloadSize, 0);
+        config.durationSeconds = intProperty("duration", config.durationSeconds, 1);
+        config.warmupSeconds = intProperty("warmup", config.warmupSeconds, 0);
+        config.connectThreads = intProperty("connectThreads", config.connectThreads, 1);
+        config.senderThreads = intProperty("senderThreads", config.senderThreads, 1);
+        return config;
+    }
+
+    /** Host name of the server. */
+    public String getHost() {
+        return host;
+    }
+
+    /** Port of the server. */
+    public int getPort() {
+        return port;
+    }
+
+    /** Number of simulated users. */
+    public int getUsers() {
+        return users;
+    }
+
+    /** Target rate of sent messages per second, over all users. */
+    public int getRate() {
+        return rate;
+    }
+
+    /** Share of broadcast messages (0 to 1), the other messages are private messages to a random user. */
+    public double getBroadcastRatio() {
+        return broadcastRatio;
+    }
+
+    /** Minimum size of the message payload in characters. */
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /** Duration of the measurement in seconds, after the warmup. */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /** Duration of the warmup in seconds. Messages sent during the warmup are not measured. */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /** Number of threads connecting the users in parallel. */
+    public int getConnectThreads() {
+        return connectThreads;
+    }
+
+    /** Number of threads sending the messages, each sending an equal share of the rate. */
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("server=%s:%d users=%d rate=%d/s broadcastRatio=%.2f payloadSize=%d duration=%ds "
+                + "warmup=%ds", host, port, users, rate, broadcastRatio, payloadSize, durationSeconds, warmupSeconds);
+    }
+
+    private static int intProperty(String name, int defaultValue, int minValue) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null) return defaultValue;
+        try {
+            return Math.max(minValue, Integer.parseInt(value.strip()));
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid value for {0}: {1}", new Object[]{PREFIX + name, value});
+            return defaultValue;
+        }
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null) return defaultValue;
+        try {
+            return Math.min(1.0, Math.max(0.0, Double.parseDouble(value.strip())));
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid value for {0}: {1}", new Object[]{PREFIX + name, value});
+            return defaultValue;
+        }
+    }
+}
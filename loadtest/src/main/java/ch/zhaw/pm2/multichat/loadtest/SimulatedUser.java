@@ -0,0 +1,132 @@
+package ch.zhaw.pm2.multichat.loadtest;
+
+import ch.zhaw.pm2.multichat.protocol.Capabilities;
+import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.FrameParser;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A simulated chat user: one connection to the server and a receiver thread recording the received messages.
+ * <p>The user connects like the chat client, offering the binary wire format. Messages can be sent by several
+ * sender threads; the sends of a user are serialized.</p>
+ */
+class SimulatedUser {
+    private static final Logger logger = Logger.getLogger(SimulatedUser.class.getCanonicalName());
+    private static final String DATA_TYPE_CONNECT = "CONNECT";
+    private static final String DATA_TYPE_CONFIRM = "CONFIRM";
+    private static final String DATA_TYPE_DISCONNECT = "DISCONNECT";
+    private static final String DATA_TYPE_MESSAGE = "MESSAGE";
+    private static final String DATA_TYPE_ERROR = "ERROR";
+    private static final String USER_NONE = "";
+    private static final Capabilities CAPABILITIES = Capabilities.of(Capabilities.BINARY_FRAMES);
+    // thousands of receiver threads: keep the reserved stack small
+    private static final long RECEIVER_STACK_SIZE = 256 * 1024;
+
+    private final String name;
+    private final LoadStatistics statistics;
+    private NetworkHandler.BlockingConnection<Serializable> connection;
+    private volatile boolean closing = false;
+
+    SimulatedUser(String name, LoadStatistics statistics) {
+        this.name = name;
+        this.statistics = statistics;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Connects to the server, registers the user and starts receiving. The connect time includes the registration
+     * (CONNECT request up to the CONFIRM response).
+     * @param host  host name of the server
+     * @param port  port of the server
+     * @throws IOException              if the connection fails
+     * @throws ChatProtocolException    if the server rejects the registration
+     */
+    void connect(String host, int port) throws IOException, ChatProtocolException {
+        long start = System.nanoTime();
+        connection = NetworkHandler.openConnection(host, port);
+        connection.setTcpNoDelay(true);
+        connection.send(new Frame(name, USER_NONE, DATA_TYPE_CONNECT, CAPABILITIES.toPayload()));
+        Frame response;
+        try {
+            // messages of other users may already arrive before the confirmation
+            do {
+                response = toFrame(connection.receive());
+            } while (DATA_TYPE_MESSAGE.equals(response.getType()));
+        } catch (ClassNotFoundException | ChatProtocolException e) {
+            connection.close();
+            throw new ChatProtocolException("Invalid response to registration of " + name + ": " + e.getMessage());
+        }
+        if (!DATA_TYPE_CONFIRM.equals(response.getType())) {
+            connection.close();
+            throw new ChatProtocolException("Registration of " + name + " rejected: " + response.getPayload());
+        }
+        statistics.connected(System.nanoTime() - start);
+        Thread receiver = new Thread(null, this::receive, "receiver-" + name, RECEIVER_STACK_SIZE);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Sends a message.
+     * @param receiver  name of the receiver or "*" for a broadcast
+     * @param payload   payload of the message
+     * @throws IOException if the message can not be sent
+     */
+    synchronized void send(String receiver, String payload) throws IOException {
+        connection.send(new Frame(name, receiver, DATA_TYPE_MESSAGE, payload));
+    }
+
+    /**
+     * Unregisters the user and closes the connection.
+     */
+    void disconnect() {
+        closing = true;
+        try {
+            synchronized (this) {
+                connection.send(new Frame(name, USER_NONE, DATA_TYPE_DISCONNECT, null));
+            }
+            connection.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Disconnect of {0} failed: {1}", new Object[]{name, e.getMessage()});
+        }
+    }
+
+    private void receive() {
+        try {
+            while (true) {
+                Frame frame = toFrame(connection.receive());
+                long now = System.nanoTime();
+                if (DATA_TYPE_MESSAGE.equals(frame.getType())) {
+                    statistics.received(frame.getPayload(), now);
+                } else if (DATA_TYPE_ERROR.equals(frame.getType())) {
+                    logger.log(Level.FINE, "Error received by {0}: {1}", new Object[]{name, frame.getPayload()});
+                    statistics.error();
+                }
+            }
+        } catch (IOException | ClassNotFoundException | ChatProtocolException e) {
+            if (!closing) {
+                logger.log(Level.WARNING, "Connection of {0} terminated: {1}", new Object[]{name, e.getMessage()});
+                statistics.disconnected();
+            }
+        }
+    }
+
+    private static Frame toFrame(Serializable data) throws ChatProtocolException {
+        if (data instanceof Frame) {
+            return (Frame) data;
+        }
+        if (data instanceof String) {
+            return FrameParser.parse((String) data);
+        }
+        throw new ChatProtocolException("Unexpected data received: " + data);
+    }
+}
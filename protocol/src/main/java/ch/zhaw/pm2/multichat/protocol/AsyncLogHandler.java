@@ -0,0 +1,181 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler which decouples the logging threads from the log output.
+ * <p>Published records are put into a bounded ring buffer and written by a background thread to the target handler
+ * (by default a {@link ConsoleHandler}). Formatting the message and all I/O is done by the background thread, so a
+ * thread logging on a hot path (e.g. the receive loop) only pays for queuing the record. If the buffer is full, the
+ * record is dropped instead of blocking the caller; the number of dropped records is logged once the writer catches
+ * up. Parameters of a record are formatted later and should therefore be immutable.</p>
+ * <p>Configuration through the {@link LogManager} properties (prefix
+ * {@code ch.zhaw.pm2.multichat.protocol.AsyncLogHandler}):</p>
+ * <ul>
+ *     <li>{@code .level}: level of the handler (default ALL)</li>
+ *     <li>{@code .capacity}: size of the ring buffer in records (default 8192)</li>
+ *     <li>{@code .target}: class name of the target handler (default java.util.logging.ConsoleHandler)</li>
+ *     <li>{@code .inferCaller}: whether the source class and method are determined for each record (default false).
+ *     Determining the caller walks the stack of the logging thread and is expensive; without it, the logger name
+ *     is used as source class.</li>
+ * </ul>
+ */
+public class AsyncLogHandler extends Handler {
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH = 256;
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final BlockingQueue<LogRecord> buffer;
+    private final Handler target;
+    private final boolean inferCaller;
+    private final AtomicLong droppedRecords = new AtomicLong(0);
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the handler using the {@link LogManager} configuration. Used by the LogManager for the handlers
+     * configured in the {@code handlers} property.
+     */
+    public AsyncLogHandler() {
+        this(createTarget(property("target", ConsoleHandler.class.getName())),
+            intProperty("capacity", DEFAULT_CAPACITY),
+            Boolean.parseBoolean(property("inferCaller", "false")));
+        setLevel(levelProperty("level", Level.ALL));
+    }
+
+    /**
+     * Creates a handler writing to the given target handler.
+     * @param target        handler doing the actual output
+     * @param capacity      maximum number of records waiting to be written
+     * @param inferCaller   true to determine the source class and method of each record in the logging thread
+     */
+    public AsyncLogHandler(Handler target, int capacity, boolean inferCaller) {
+        this.target = target;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.inferCaller = inferCaller;
+        this.writer = new Thread(this::writeRecords, "async-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the record to be written by the background thread. Returns immediately, also if the buffer is full.
+     * @param record    log record
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || record == null || !isLoggable(record)) {
+            return;
+        }
+        if (inferCaller) {
+            // must be determined in the logging thread, the background thread has a different stack
+            record.getSourceClassName();
+        } else {
+            record.setSourceClassName(record.getLoggerName());
+            record.setSourceMethodName(null);
+        }
+        if (!buffer.offer(record)) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    /**
+     * Flushes the target handler. Records still in the buffer are written by the background thread.
+     */
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    /**
+     * Writes the records still in the buffer (waiting at most one second) and closes the target handler.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+
+    private void writeRecords() {
+        List<LogRecord> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            try {
+                batch.add(buffer.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            buffer.drainTo(batch, MAX_BATCH - 1);
+            write(batch);
+        }
+        // write the remaining records on close
+        buffer.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<LogRecord> batch) {
+        for (LogRecord record : batch) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError("Failed to write log record", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+        batch.clear();
+        long dropped = droppedRecords.getAndSet(0);
+        if (dropped > 0) {
+            LogRecord record = new LogRecord(Level.WARNING, "Log buffer full, dropped {0} log records");
+            record.setParameters(new Object[]{dropped});
+            record.setLoggerName(AsyncLogHandler.class.getName());
+            record.setSourceClassName(AsyncLogHandler.class.getName());
+            target.publish(record);
+        }
+        target.flush();
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + "." + name);
+        return value == null ? defaultValue : value.strip();
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(property(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Level levelProperty(String name, Level defaultValue) {
+        try {
+            return Level.parse(property(name, defaultValue.getName()));
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Handler createTarget(String className) {
+        try {
+            return (Handler) Class.forName(className, true, ClassLoader.getSystemClassLoader())
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return new ConsoleHandler();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Optional protocol features offered by a client in the payload of the CONNECT request.
+ * <p>The payload has the form {@code capabilities:feature1,feature2}. Servers not knowing about capabilities
+ * ignore the payload, clients not offering any send an empty payload. A server accepting a feature switches to it
+ * right away, starting with the CONFIRM response. This way old clients and servers keep working unchanged.</p>
+ * <ul>
+ *     <li>{@link #BINARY_FRAMES}: the server answers with {@link WireFormat#BINARY} frames. As soon as the client
+ *     receives a binary frame, it also sends binary frames.</li>
+ *     <li>{@link #DEFLATE}: together with {@link #BINARY_FRAMES}, the server compresses large payloads
+ *     ({@link WireFormat#BINARY_COMPRESSED}). The client may send compressed frames as well, but does not have to.</li>
+ *     <li>{@link #USER_IDS}: together with {@link #BINARY_FRAMES}, the server adds the numeric ID of the sender to
+ *     private messages. The client may then address the sender by this ID instead of the name.</li>
+ *     <li>{@link #HEARTBEAT}: the client answers PING frames with PONG, so the server can detect dead connections
+ *     of idle clients.</li>
+ *     <li>{@link #BATCH}: together with {@link #BINARY_FRAMES}, the server may send several messages to all users or
+ *     to a room at once, packed into a BATCH frame (see {@link FrameBatch}).</li>
+ * </ul>
+ */
+public final class Capabilities {
+    /** Feature: compact binary frames, see {@link FrameCodec}. */
+    public static final String BINARY_FRAMES = "binary";
+    /** Feature: Deflate compressed payloads of large binary frames, see {@link FrameCodec}. */
+    public static final String DEFLATE = "deflate";
+    /** Feature: numeric user IDs in binary frames, see {@link Frame#getSenderId()}. */
+    public static final String USER_IDS = "ids";
+    /** Feature: PING frames of the server are answered with PONG frames. */
+    public static final String HEARTBEAT = "heartbeat";
+    /** Feature: BATCH frames containing several frames are unpacked, see {@link FrameBatch}. */
+    public static final String BATCH = "batch";
+
+    private static final String PREFIX = "capabilities:";
+    private static final Capabilities NONE = new Capabilities(Collections.emptySet());
+
+    private final Set<String> features;
+
+    private Capabilities(Set<String> features) {
+        this.features = features;
+    }
+
+    /**
+     * Creates a capabilities object offering the given features.
+     * @param features  names of the features
+     * @return capabilities object
+     */
+    public static Capabilities of(String... features) {
+        Set<String> set = new LinkedHashSet<>();
+        for (String feature : features) {
+            if (feature != null && !feature.isBlank()) set.add(feature.strip());
+        }
+        return new Capabilities(Collections.unmodifiableSet(set));
+    }
+
+    /**
+     * Parses the payload of a CONNECT request.
+     * @param payload   payload of the request, may be null or any text of old clients
+     * @return the offered capabilities, empty if the payload does not contain any
+     */
+    public static Capabilities parse(String payload) {
+        if (payload == null || !payload.startsWith(PREFIX)) return NONE;
+        return of(payload.substring(PREFIX.length()).strip().split(","));
+    }
+
+    /**
+     * Indicates whether the given feature is offered.
+     * @param feature   name of the feature
+     * @return true if the feature is offered, false otherwise
+     */
+    public boolean supports(String feature) {
+        return features.contains(feature);
+    }
+
+    /**
+     * Returns the payload representation to be sent with the CONNECT request.
+     * @return payload representation
+     */
+    public String toPayload() {
+        return PREFIX + String.join(",", features);
+    }
+
+    @Override
+    public String toString() {
+        return toPayload();
+    }
+}
@@ -0,0 +1,442 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+import static ch.zhaw.pm2.multichat.protocol.ChatClient.State.*;
+
+/**
+ * This class implements the communication protocol on client side, without any dependency to a UI toolkit.
+ * <p>The client reports all events (messages, errors and state changes) to its {@link ChatClientListener}s, so it can
+ * be used by the chat UI as well as by bots, gateways or load tests. Messages are sent by a separate sender thread,
+ * so posting a message never blocks the caller.</p>
+ * <p>If the server supports {@link Capabilities#USER_IDS}, the client remembers the IDs of the senders of private
+ * messages and addresses answers to them by ID, which saves the server parsing and looking up the names.</p>
+ */
+public class ChatClient extends ConnectionHandler {
+    public static final String USER_ALL = "*";
+    private static final Capabilities CAPABILITIES =
+        Capabilities.of(Capabilities.BINARY_FRAMES, Capabilities.DEFLATE, Capabilities.USER_IDS,
+            Capabilities.HEARTBEAT, Capabilities.BATCH);
+    private static final int MAX_USER_IDS = 1024;
+    private final List<ChatClientListener> listeners = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+    // IDs of the users who sent private messages, by name
+    private final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+    private volatile State state = NEW;
+    private final Thread senderThread;
+
+    /**
+     * States of the client.
+     */
+    public enum State {
+        NEW, CONFIRM_CONNECT, CONNECTED, CONFIRM_DISCONNECT, DISCONNECTED;
+    }
+
+    /**
+     * Constructor creates a new ChatClient object and starts new sender and receiver threads.
+     * @param connection network connection through server port and server address
+     * @param userName  user's name
+     */
+    public ChatClient(NetworkHandler.NetworkConnection<Serializable> connection, String userName) {
+        this(connection, userName, ConnectionExecutor.PLATFORM);
+    }
+
+    /**
+     * Constructor creates a new ChatClient object and starts the sender and receiver threads using the executor,
+     * e.g. as virtual threads for bots or load tests running many clients.
+     * @param connection network connection through server port and server address
+     * @param userName  user's name
+     * @param executor  executor starting the sender and receiver threads
+     */
+    public ChatClient(NetworkHandler.NetworkConnection<Serializable> connection, String userName,
+                      ConnectionExecutor executor) {
+        super(connection);
+        this.userName = (userName == null || userName.isBlank()) ? USER_NONE : userName;
+        senderThread = executor.start("chat-client-sender", new SenderThread());
+        startReceivingAsync(executor);
+    }
+
+    /**
+     * Registers a listener for the events of this client.
+     * @param listener  listener to add
+     */
+    public void addListener(ChatClientListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "Listener must not be null"));
+    }
+
+    /**
+     * Removes a listener.
+     * @param listener  listener to remove
+     */
+    public void removeListener(ChatClientListener listener) {
+        listeners.remove(listener);
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public void setState(State newState) {
+        this.state = newState;
+        for (ChatClientListener listener : listeners) {
+            listener.stateChanged(newState);
+        }
+    }
+
+    /**
+     * Returns the user name, which is confirmed by the server once connected.
+     * @return name of the user
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Returns the address of the server.
+     * @return host address of the server
+     */
+    public String getServerAddress() {
+        return connection.getRemoteHost();
+    }
+
+    /**
+     * Returns the port of the server.
+     * @return port of the server
+     */
+    public int getServerPort() {
+        return connection.getRemotePort();
+    }
+
+    /**
+     * Starts the connection handler.
+     */
+    @Override
+    public void startConnectionHandler() {
+        logger.info("Starting Connection Handler");
+    }
+
+    /**
+     * Stops the connection handler.
+     */
+    @Override
+    public void stopConnectionHandler() {
+        logger.info("Stopped Connection Handler");
+    }
+
+    /**
+     * Closes the connection handler.
+     * Interrupts the sender thread to clean up
+     * to avoid leaking resources, the receiver stops with the connection
+     */
+    @Override
+    public void closeConnectionHandler() {
+        logger.info("Closing Connection Handler to Server");
+        senderThread.interrupt();
+    }
+
+    /**
+     * Handles unregistered connection handler
+     * @param e exception thrown with warning message
+     */
+    @Override
+    public void unregisteredConnectionHandler(Exception e) {
+        logger.log(Level.WARNING, "Unregistered because connection terminated {0}", e.getMessage());
+    }
+
+    private void fireMessage(String sender, String receiver, String message) {
+        for (ChatClientListener listener : listeners) {
+            listener.messageReceived(sender, receiver, message);
+        }
+    }
+
+    private void fireRoomMessage(String sender, String room, String message) {
+        for (ChatClientListener listener : listeners) {
+            listener.roomMessageReceived(sender, room, message);
+        }
+    }
+
+    private void fireRoomJoined(String user, String room) {
+        for (ChatClientListener listener : listeners) {
+            listener.roomJoined(user, room);
+        }
+    }
+
+    private void fireRoomLeft(String user, String room) {
+        for (ChatClientListener listener : listeners) {
+            listener.roomLeft(user, room);
+        }
+    }
+
+    private void fireInfo(String info) {
+        for (ChatClientListener listener : listeners) {
+            listener.infoReceived(info);
+        }
+    }
+
+    private void fireReconnectSuggested(long delayMillis) {
+        for (ChatClientListener listener : listeners) {
+            listener.reconnectSuggested(delayMillis);
+        }
+    }
+
+    private void fireError(String error) {
+        for (ChatClientListener listener : listeners) {
+            listener.errorReceived(error);
+        }
+    }
+
+    private void processDataTypeConnect() {
+        logger.warning("Illegal connect request from server");
+    }
+
+    private void processDataTypeConfirm(Frame frame) {
+        if (state == CONFIRM_CONNECT) {
+            this.userName = frame.getReceiver();
+            fireInfo(frame.getPayload());
+            logger.log(Level.INFO, "CONFIRM: {0}", frame.getPayload());
+            this.setState(CONNECTED);
+        } else if (state == CONFIRM_DISCONNECT) {
+            fireInfo(frame.getPayload());
+            logger.log(Level.INFO, "CONFIRM: {0}", frame.getPayload());
+            this.setState(DISCONNECTED);
+        } else {
+            logger.log(Level.WARNING, "Got unexpected confirm message: {0}", frame.getPayload());
+        }
+    }
+
+    private void processDataTypeDisconnected(Frame frame) {
+        if (state == DISCONNECTED) {
+            logger.log(Level.INFO, "DISCONNECT: Already in disconnected: {0}", frame.getPayload());
+            return;
+        }
+        fireInfo(frame.getPayload());
+        logger.log(Level.INFO, "DISCONNECT: {0}", frame.getPayload());
+        long reconnectDelay = ReconnectHint.parse(frame.getPayload());
+        if (reconnectDelay >= 0) {
+            fireReconnectSuggested(reconnectDelay);
+        }
+        this.setState(DISCONNECTED);
+    }
+
+    private void processDataTypeMessage(Frame frame) {
+        if (state != CONNECTED) {
+            logger.log(Level.INFO, "MESSAGE: Illegal state {0} for message: {1}",
+                new Object[]{state, frame.getPayload()});
+            return;
+        }
+        if (frame.getSenderId() != Frame.NO_ID) {
+            if (userIds.size() >= MAX_USER_IDS) userIds.clear();
+            userIds.put(frame.getSender(), frame.getSenderId());
+        }
+        fireMessage(frame.getSender(), frame.getReceiver(), frame.getPayload());
+        // every chat message: only logged when tracing
+        logger.log(Level.FINER, "MESSAGE: From {0} to {1}: {2}",
+            new Object[]{frame.getSender(), frame.getReceiver(), frame.getPayload()});
+    }
+
+    private void processDataTypeRoom(Frame frame) {
+        if (state != CONNECTED) {
+            logger.log(Level.INFO, "ROOM: Illegal state {0} for message: {1}",
+                new Object[]{state, frame.getPayload()});
+            return;
+        }
+        fireRoomMessage(frame.getSender(), frame.getReceiver(), frame.getPayload());
+        logger.log(Level.FINER, "ROOM: From {0} to {1}: {2}",
+            new Object[]{frame.getSender(), frame.getReceiver(), frame.getPayload()});
+    }
+
+    private void processDataTypeJoin(Frame frame) {
+        fireRoomJoined(frame.getSender(), frame.getReceiver());
+        logger.log(Level.FINE, "JOIN: {0} joined {1}", new Object[]{frame.getSender(), frame.getReceiver()});
+    }
+
+    private void processDataTypeLeave(Frame frame) {
+        fireRoomLeft(frame.getSender(), frame.getReceiver());
+        logger.log(Level.FINE, "LEAVE: {0} left {1}", new Object[]{frame.getSender(), frame.getReceiver()});
+    }
+
+    private void processDataTypeError(Frame frame) {
+        // the IDs may be outdated, names are used until new IDs are received
+        userIds.clear();
+        fireError(frame.getPayload());
+        logger.log(Level.WARNING, "ERROR: {0}", frame.getPayload());
+    }
+
+    private void processDataTypeBatch(Frame frame) {
+        try {
+            for (Frame packed : FrameBatch.unpack(frame)) {
+                processData(packed);
+            }
+        } catch (ChatProtocolException e) {
+            logger.log(Level.WARNING, "BATCH: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * Processes the received frame depending on the data type.
+     * @param frame  received frame
+     */
+    @Override
+    public void processData(Frame frame) {
+        // dispatch operation based on type parameter
+        switch (frame.getType()) {
+            case DATA_TYPE_CONNECT:
+                processDataTypeConnect();
+                break;
+            case DATA_TYPE_CONFIRM:
+                processDataTypeConfirm(frame);
+                break;
+            case DATA_TYPE_DISCONNECT:
+                processDataTypeDisconnected(frame);
+                break;
+            case DATA_TYPE_MESSAGE:
+                processDataTypeMessage(frame);
+                break;
+            case DATA_TYPE_ROOM:
+                processDataTypeRoom(frame);
+                break;
+            case DATA_TYPE_JOIN:
+                processDataTypeJoin(frame);
+                break;
+            case DATA_TYPE_LEAVE:
+                processDataTypeLeave(frame);
+                break;
+            case DATA_TYPE_ERROR:
+                processDataTypeError(frame);
+                break;
+            case DATA_TYPE_PING:
+                // sent by the sender thread, which is the only thread writing messages to the connection
+                queue.offer(new Message(DATA_TYPE_PONG, USER_NONE, frame.getPayload()));
+                break;
+            case DATA_TYPE_PONG:
+                break;
+            case DATA_TYPE_BATCH:
+                processDataTypeBatch(frame);
+                break;
+            default:
+                logger.log(Level.WARNING, "Unknown data type received: {0}", frame.getType());
+                break;
+        }
+    }
+
+    /**
+     * Connects to server.
+     * Sends data of user input and offers the supported protocol capabilities.
+     * Sets the state of the connection
+     * @throws ChatProtocolException Thrown n case of an illegal state for connect
+     */
+    public void connect() throws ChatProtocolException {
+        if (state != NEW) throw new ChatProtocolException("Illegal state for connect: " + state);
+        // before sending: the confirmation may be received before sendData returns
+        this.setState(CONFIRM_CONNECT);
+        this.sendData(userName, USER_NONE, DATA_TYPE_CONNECT, CAPABILITIES.toPayload());
+    }
+
+    /**
+     * Disconnects to server.
+     * Sends data of user input.
+     * Sets the state of the connection
+     * @throws ChatProtocolException Thrown n case of an illegal state for disconnect
+     */
+    public void disconnect() throws ChatProtocolException {
+        if (state != NEW && state != CONNECTED) throw new ChatProtocolException("Illegal state for disconnect: " + state);
+        this.setState(CONFIRM_DISCONNECT);
+        this.sendData(userName, USER_NONE, DATA_TYPE_DISCONNECT, null);
+    }
+
+    private void send(Message message) throws ChatProtocolException {
+        if (state != CONNECTED) throw new ChatProtocolException("Illegal state for message: " + state);
+        Integer receiverId = DATA_TYPE_MESSAGE.equals(message.type) && message.receiver != null
+            ? userIds.get(message.receiver) : null;
+        if (receiverId != null) {
+            // the server knows the sender; the receiver name is kept in case the ID is not valid anymore
+            this.sendFrame(new EncodedFrame(new Frame(USER_NONE, Frame.NO_ID, message.receiver, receiverId,
+                message.type, message.message)));
+        } else {
+            this.sendData(userName, message.receiver, message.type, message.message);
+        }
+    }
+
+    /**
+     * Post message and puts it into a queue. The message is sent by the sender thread; if it can not be sent, an
+     * error is reported to the listeners.
+     * @param receiver Recipient of the chat
+     * @param message Message from the User which is the sender
+     */
+    public void postMessage(String receiver, String message) {
+        try {
+            queue.put(new Message(DATA_TYPE_MESSAGE, receiver, message));
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Joins a room, the server confirms with a join notification to all members of the room.
+     * @param room  name of the room, created by the first join
+     */
+    public void joinRoom(String room) {
+        try {
+            queue.put(new Message(DATA_TYPE_JOIN, room, null));
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Leaves a room, the server confirms with a leave notification.
+     * @param room  name of the room
+     */
+    public void leaveRoom(String room) {
+        try {
+            queue.put(new Message(DATA_TYPE_LEAVE, room, null));
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Posts a message to all members of a room joined before.
+     * @param room      name of the room
+     * @param message   text of the message
+     */
+    public void postRoomMessage(String room, String message) {
+        try {
+            queue.put(new Message(DATA_TYPE_ROOM, room, message));
+        } catch (InterruptedException ignored) {}
+    }
+
+    private class SenderThread implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Message message = queue.take();
+                    try {
+                        send(message);
+                    } catch (ChatProtocolException e) {
+                        fireError(e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Message or room request waiting to be sent.
+     */
+    private static class Message {
+        private final String type;
+        private final String receiver;
+        private final String message;
+
+        Message(String type, String receiver, String message) {
+            this.type = type;
+            this.receiver = receiver;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+/**
+ * Listener for the events of a {@link ChatClient}.
+ * <p>Every event is delivered, also if it is identical to the previous one (e.g. the same message sent twice).
+ * The methods are called by the threads of the client (receiver or sender thread), not by a UI thread. All methods
+ * have an empty default implementation, so a listener only needs to implement the events it is interested in.</p>
+ */
+public interface ChatClientListener {
+
+    /**
+     * Called for every received chat message.
+     * @param sender    name of the sending user
+     * @param receiver  name of the receiving user, "*" for a message to all users
+     * @param message   text of the message
+     */
+    default void messageReceived(String sender, String receiver, String message) {}
+
+    /**
+     * Called for every received message to a room joined by this client.
+     * @param sender    name of the sending user
+     * @param room      name of the room
+     * @param message   text of the message
+     */
+    default void roomMessageReceived(String sender, String room, String message) {}
+
+    /**
+     * Called when a user joins a room joined by this client, including the client itself.
+     * @param user  name of the joining user
+     * @param room  name of the room
+     */
+    default void roomJoined(String user, String room) {}
+
+    /**
+     * Called when a user leaves a room joined by this client, including the client itself.
+     * @param user  name of the leaving user
+     * @param room  name of the room
+     */
+    default void roomLeft(String user, String room) {}
+
+    /**
+     * Called for informational messages of the server, e.g. the confirmation of a connect or disconnect.
+     * @param info  text of the information
+     */
+    default void infoReceived(String info) {}
+
+    /**
+     * Called for errors reported by the server and for messages which could not be sent.
+     * @param error text of the error
+     */
+    default void errorReceived(String error) {}
+
+    /**
+     * Called when the server closes the connection and suggests reconnecting, e.g. because it shuts down. Called
+     * before the state changes to {@link ChatClient.State#DISCONNECTED}.
+     * @param delayMillis   delay after which a new connection should be opened, chosen randomly by the server so
+     *                      not all clients reconnect at the same time
+     */
+    default void reconnectSuggested(long delayMillis) {}
+
+    /**
+     * Called whenever the state of the client changes.
+     * @param state new state of the client
+     */
+    default void stateChanged(ChatClient.State state) {}
+}
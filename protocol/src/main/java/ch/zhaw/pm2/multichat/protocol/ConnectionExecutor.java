@@ -0,0 +1,52 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+/**
+ * Starts the blocking loops of a connection (receiving and sending), each in its own thread.
+ * <p>{@link #PLATFORM} starts a platform thread per loop. On Java 21 and newer {@link #virtualThreads()} starts
+ * virtual threads instead, so many thousand blocking connections are served by a few carrier threads. The loops
+ * only block in socket reads and writes and in queue takes, which all unmount a virtual thread, and they never hold
+ * a monitor while blocking, so the carrier threads are not pinned.</p>
+ */
+public interface ConnectionExecutor {
+    /**
+     * Starts a platform thread per task.
+     */
+    ConnectionExecutor PLATFORM = (name, task) -> {
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    };
+
+    /**
+     * Starts a task in a new thread.
+     * @param name  name of the thread
+     * @param task  task to run, typically a loop running until the connection is closed
+     * @return the started thread, e.g. to interrupt it
+     */
+    Thread start(String name, Runnable task);
+
+    /**
+     * Indicates whether the runtime supports virtual threads (Java 21 or newer).
+     * @return true if {@link #virtualThreads()} can be used
+     */
+    static boolean isVirtualThreadSupported() {
+        return VirtualThreads.FACTORY != null;
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task.
+     * @return the executor
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     */
+    static ConnectionExecutor virtualThreads() {
+        if (VirtualThreads.FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        return (name, task) -> {
+            Thread thread = VirtualThreads.FACTORY.newThread(task);
+            thread.setName(name);
+            thread.start();
+            return thread;
+        };
+    }
+}
@@ -3,8 +3,10 @@ package ch.zhaw.pm2.multichat.protocol;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.Serializable;
 import java.net.SocketException;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,67 +14,57 @@ import java.util.logging.Logger;
  * Abstract class that contains data fields and methods that are needed for the connection handler functions.
  */
 public abstract class ConnectionHandler {
-    protected final NetworkHandler.NetworkConnection<String> connection;
+    protected final NetworkHandler.NetworkConnection<Serializable> connection;
     protected static final Logger logger = Logger.getLogger(ConnectionHandler.class.getCanonicalName());
     protected static final String DATA_TYPE_CONNECT = "CONNECT";
     protected static final String DATA_TYPE_CONFIRM = "CONFIRM";
     protected static final String DATA_TYPE_DISCONNECT = "DISCONNECT";
     protected static final String DATA_TYPE_MESSAGE = "MESSAGE";
     protected static final String DATA_TYPE_ERROR = "ERROR";
+    // rooms: the receiver of these frames is the name of the room
+    protected static final String DATA_TYPE_JOIN = "JOIN";
+    protected static final String DATA_TYPE_LEAVE = "LEAVE";
+    protected static final String DATA_TYPE_ROOM = "ROOM";
+    // heartbeats: PING is answered with a PONG carrying the same payload
+    protected static final String DATA_TYPE_PING = "PING";
+    protected static final String DATA_TYPE_PONG = "PONG";
+    // several frames in one, see FrameBatch
+    protected static final String DATA_TYPE_BATCH = "BATCH";
 
     protected static final String USER_NONE = "";
     protected static final String USER_ALL = "*";
     protected String userName = USER_NONE;
 
-    protected String sender = null;
-    protected String reciever = null;
-    protected String type = null;
-    protected String payload = null;
+    // format used to send data, switched to binary during the CONNECT handshake (see Capabilities)
+    protected volatile WireFormat wireFormat = WireFormat.SERIALIZED;
 
     /**
      *The constructor of the class.
      * @param connection is a NetworConnection that gets saved
      */
-    public ConnectionHandler(NetworkHandler.NetworkConnection<String> connection) {
+    public ConnectionHandler(NetworkHandler.NetworkConnection<Serializable> connection) {
         this.connection = connection;
     }
 
     /**
-     * Reads the data from user input.
-     * @param data user input when starting the connection
-     * @throws ChatProtocolException if there are is an error while processing the data
+     * Parses the legacy text representation of the received data.
+     * If the data is invalid, an error is sent back to the peer.
+     * @param data received text frame
+     * @return the parsed frame or null if the data is invalid
      */
-    protected void parseData(String data) {
-        Scanner scanner = new Scanner(data);
+    protected Frame parseData(String data) {
         try {
-            if (scanner.hasNextLine()) {
-                sender = scanner.nextLine();
-            } else {
-                throw new ChatProtocolException("No Sender found");
-            }
-            if (scanner.hasNextLine()) {
-                reciever = scanner.nextLine();
-            } else {
-                throw new ChatProtocolException("No Reciever found");
-            }
-            if (scanner.hasNextLine()) {
-                type = scanner.nextLine();
-            } else {
-                throw new ChatProtocolException("No Type found");
-            }
-            if (scanner.hasNextLine()) {
-                payload = scanner.nextLine();
-            }
+            return FrameParser.parse(data);
         } catch (ChatProtocolException e) {
             logger.log(Level.INFO, "Error while processing data {0}", e.getMessage());
             sendData(USER_NONE, userName, DATA_TYPE_ERROR, e.getMessage());
-        } finally {
-            scanner.close();
+            return null;
         }
     }
 
     /**
-     * Sends data if the connection is available. The data will be built to String.
+     * Sends data if the connection is available. Depending on the negotiated wire format, the data is sent as binary
+     * frame or built to String.
      * @param sender             User at one end of the server port
      * @param receiver           User at the same server port
      * @param type               Type of input
@@ -82,55 +74,70 @@ public abstract class ConnectionHandler {
      * @throws IOException       when input or output is not expected
      */
     public void sendData(String sender, String receiver, String type, String payload) {
+        sendFrame(new EncodedFrame(new Frame(sender, receiver, type, payload)));
+    }
+
+    /**
+     * Sends a frame if the connection is available. The frame is encoded in the negotiated wire format, the encoded
+     * bytes are shared with all other connections the same frame is sent to.
+     * @param frame  frame to send
+     */
+    protected void sendFrame(EncodedFrame frame) {
         if (connection.isAvailable()) {
-            new StringBuilder();
-            String data = new StringBuilder()
-                    .append(sender+"\n")
-                    .append(receiver+"\n")
-                    .append(type+"\n")
-                    .append(payload+"\n")
-                    .toString();
             try {
-                connection.send(data);
-            } catch (SocketException e) {
-                logger.log(Level.SEVERE,"Connection closed: {0}", e.getMessage());
-            } catch (EOFException e) {
-                logger.severe("Connection terminated by remote");
-            } catch(IOException e) {
-                logger.log(Level.SEVERE,"Communication error: {0}", e.getMessage());
+                connection.sendEncoded(frame.getBytes(wireFormat));
+            } catch (IOException e) {
+                logSendError(e);
             }
         }
     }
 
     /**
-     * Starts receiving messages from other users.
-     * Starts the connection handler and processes the data that is send.
-     * @throws SocketException            if there is a communication error
-     * @throws EOFException               has been reached unexpectedly during input.
-     * @throws IOException                when input or output is not expected
-     * @throws ClassNotFoundException     in case class is not foung
+     * Sends a batch of frames with a single flush (or gathering write) if the connection is available.
+     * @param frames  frames to send, in order
      */
-    public void startReceiving(){
-        startConnectionHandler();
-        try {
-            logger.info("Start receiving data...");
-            while (connection.isAvailable()) {
-                String data = connection.receive();
-                processData(data);
+    protected void sendFrames(List<EncodedFrame> frames) {
+        if (connection.isAvailable()) {
+            try {
+                List<byte[]> batch = new ArrayList<>(frames.size());
+                for (EncodedFrame frame : frames) {
+                    batch.add(frame.getBytes(wireFormat));
+                }
+                connection.sendEncoded(batch);
+            } catch (IOException e) {
+                logSendError(e);
             }
-            logger.info("Stopped recieving data");
-        } catch (SocketException e) {
-            logger.info("Connection terminated locally");
-            unregisteredConnectionHandler(e);
-        } catch (EOFException e) {
-            logger.info("Connection terminated by remote");
-            unregisteredConnectionHandler(e);
-        } catch(IOException e) {
-            logger.log(Level.WARNING,"Communication error: {0}", e.getMessage());
-        } catch(ClassNotFoundException e) {
-            logger.log(Level.WARNING,"Received object of unknown type: {0}" , e.getMessage());
         }
-        stopConnectionHandler();
+    }
+
+    private void logSendError(IOException e) {
+        if (e instanceof SocketException) {
+            logger.log(Level.SEVERE,"Connection closed: {0}", e.getMessage());
+        } else if (e instanceof EOFException) {
+            logger.severe("Connection terminated by remote");
+        } else {
+            logger.log(Level.SEVERE,"Communication error: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts receiving messages from other users without blocking the calling thread.
+     * Starts the connection handler and processes the data that is received, until the connection is terminated.
+     * Blocking connections receive on a new platform thread, event driven connections (see
+     * {@link NioNetworkServer.NioConnection}) push the received data from their event loop.
+     */
+    public void startReceivingAsync() {
+        startReceivingAsync(ConnectionExecutor.PLATFORM);
+    }
+
+    /**
+     * Starts receiving messages without blocking the calling thread, like {@link #startReceivingAsync()}.
+     * @param executor  executor starting the receiving thread of a blocking connection, e.g. a virtual thread
+     */
+    public void startReceivingAsync(ConnectionExecutor executor) {
+        startConnectionHandler();
+        logger.info("Start receiving data...");
+        connection.startReceiving(new DataReceiver(), executor);
     }
 
     /**
@@ -143,16 +150,37 @@ public abstract class ConnectionHandler {
             connection.close();
             logger.info("Stopped receiving data.");
         } catch (IOException e) {
-            logger.log(Level.WARNING,"Failed to close connection." + e.getMessage());
+            logger.log(Level.WARNING,"Failed to close connection: {0}", e.getMessage());
         }
         closeConnectionHandler();
         }
 
+    /**
+     * Processes a data object received from the connection.
+     * Legacy text frames are parsed, binary frames are used as they are. As soon as the peer sends binary frames,
+     * this side sends binary frames too.
+     * @param data  received data object
+     */
+    protected void receiveData(Serializable data) {
+        if (data instanceof Frame) {
+            // a negotiated compressed format is kept
+            if (wireFormat == WireFormat.SERIALIZED) wireFormat = WireFormat.BINARY;
+            processData((Frame) data);
+        } else if (data instanceof String) {
+            Frame frame = parseData((String) data);
+            if (frame != null) {
+                processData(frame);
+            }
+        } else {
+            logger.log(Level.WARNING, "Received object of unknown type: {0}", data.getClass().getName());
+        }
+    }
+
      /**
-     * Processes user inputs depending on the data type.
-     * @param data  user inputs
+     * Processes the received frame depending on the data type.
+     * @param frame  received frame
      */
-    abstract public  void processData(String data);
+    abstract public  void processData(Frame frame);
 
      /**
      * Starts connection handler with user specified message.
@@ -174,4 +202,29 @@ public abstract class ConnectionHandler {
      * @param e exception thrown with warning message
      */
     abstract public  void unregisteredConnectionHandler(Exception e);
+
+    /**
+     * Processes the data received by the connection and stops the connection handler once it is terminated.
+     */
+    private class DataReceiver implements NetworkHandler.Receiver<Serializable> {
+        @Override
+        public void received(Serializable data) {
+            receiveData(data);
+        }
+
+        @Override
+        public void terminated(IOException cause) {
+            if (cause instanceof SocketException) {
+                logger.info("Connection terminated locally");
+                unregisteredConnectionHandler(cause);
+            } else if (cause instanceof EOFException) {
+                logger.info("Connection terminated by remote");
+                unregisteredConnectionHandler(cause);
+            } else {
+                logger.log(Level.WARNING,"Communication error: {0}", cause.getMessage());
+            }
+            logger.info("Stopped recieving data");
+            stopConnectionHandler();
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * A {@link Frame} together with its wire representation.
+ * <p>The frame is encoded at most once per {@link WireFormat}, the resulting bytes are shared by all connections
+ * the frame is sent to (e.g. all recipients of a broadcast). The bytes must therefore never be modified.
+ * Instances are thread-safe; if two threads request the same format at the same time, the frame may be encoded
+ * twice, but both get identical bytes.</p>
+ */
+public final class EncodedFrame {
+    private final Frame frame;
+    private volatile byte[] serialized;
+    private volatile byte[] binary;
+    private volatile byte[] compressed;
+
+    /**
+     * Creates an encoded frame. The encoding is done lazily on first use.
+     * @param frame frame to encode
+     */
+    public EncodedFrame(Frame frame) {
+        this.frame = Objects.requireNonNull(frame, "Frame must not be null");
+    }
+
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * Returns the wire representation of the frame in the given format.
+     * @param format    wire format
+     * @return encoded bytes, shared between all callers and must not be modified
+     * @throws IOException if the frame can not be encoded
+     */
+    public byte[] getBytes(WireFormat format) throws IOException {
+        if (format == WireFormat.BINARY_COMPRESSED) {
+            // compressed once, also if the frame is sent to many connections
+            byte[] bytes = compressed;
+            if (bytes == null) {
+                bytes = FrameCodec.encode(frame, true);
+                compressed = bytes;
+            }
+            return bytes;
+        }
+        if (format == WireFormat.BINARY) {
+            byte[] bytes = binary;
+            if (bytes == null) {
+                bytes = NetworkHandler.encode(frame);
+                binary = bytes;
+            }
+            return bytes;
+        }
+        byte[] bytes = serialized;
+        if (bytes == null) {
+            bytes = NetworkHandler.encode(frame.toText());
+            serialized = bytes;
+        }
+        return bytes;
+    }
+}
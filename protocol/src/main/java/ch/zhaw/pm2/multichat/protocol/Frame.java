@@ -0,0 +1,111 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Immutable data frame exchanged between client and server, consisting of sender, receiver, data type and payload.
+ * <p>On the wire a frame is either written in the compact binary format of {@link FrameCodec} or, for peers which do
+ * not support it, as the legacy text representation ({@link #toText()}) using Java serialization.
+ * The class is only {@link Serializable} to match the type bound of {@link NetworkHandler.NetworkConnection}.</p>
+ */
+public final class Frame implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** User ID of frames without an ID. */
+    public static final int NO_ID = 0;
+
+    private final String sender;
+    private final int senderId;
+    private final String receiver;
+    private final int receiverId;
+    private final String type;
+    private final String payload;
+
+    /**
+     * Creates a new frame.
+     * @param sender    name of the sending user
+     * @param receiver  name of the receiving user
+     * @param type      data type (e.g. MESSAGE)
+     * @param payload   payload of the frame, may be null
+     */
+    public Frame(String sender, String receiver, String type, String payload) {
+        this(sender, NO_ID, receiver, NO_ID, type, payload);
+    }
+
+    /**
+     * Creates a new frame with numeric user IDs, which are only transmitted by the binary format
+     * (see {@link Capabilities#USER_IDS}).
+     * @param sender        name of the sending user, may be empty if the ID is given
+     * @param senderId      ID of the sending user or {@link #NO_ID}
+     * @param receiver      name of the receiving user, may be empty if the ID is given
+     * @param receiverId    ID of the receiving user or {@link #NO_ID}
+     * @param type          data type (e.g. MESSAGE)
+     * @param payload       payload of the frame, may be null
+     */
+    public Frame(String sender, int senderId, String receiver, int receiverId, String type, String payload) {
+        this.sender = sender;
+        this.senderId = senderId;
+        this.receiver = receiver;
+        this.receiverId = receiverId;
+        this.type = Objects.requireNonNull(type, "Type must not be null");
+        this.payload = payload;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public int getReceiverId() {
+        return receiverId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the legacy text representation: sender, receiver, type and payload, each terminated by a newline.
+     * @return legacy text representation of the frame
+     */
+    public String toText() {
+        return new StringBuilder()
+            .append(sender).append('\n')
+            .append(receiver).append('\n')
+            .append(type).append('\n')
+            .append(payload).append('\n')
+            .toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Frame that = (Frame) o;
+        return Objects.equals(sender, that.sender) && senderId == that.senderId
+            && Objects.equals(receiver, that.receiver) && receiverId == that.receiverId
+            && type.equals(that.type) && Objects.equals(payload, that.payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sender, senderId, receiver, receiverId, type, payload);
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{" + type + ", " + sender + " -> " + receiver + ", " + payload + "}";
+    }
+}
@@ -0,0 +1,87 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several frames packed into the payload of a single BATCH frame (see {@link Capabilities#BATCH}).
+ * <p>The payload is the concatenation of the packed frames, each consisting of the fields type, sender, sender ID,
+ * receiver, receiver ID and payload. Every field is written as its length in characters, a colon and the
+ * characters, e.g. {@code 7:MESSAGE}; a null payload is written as a single dash, IDs as decimal numbers. Many small
+ * frames sent as one frame need a single header and socket write, and compress much better as one payload.</p>
+ */
+public final class FrameBatch {
+    private static final char NULL_FIELD = '-';
+
+    private FrameBatch() {
+    }
+
+    /**
+     * Packs frames into a BATCH frame.
+     * @param frames    frames to pack, in the order they are unpacked
+     * @return the BATCH frame
+     */
+    public static Frame pack(List<Frame> frames) {
+        StringBuilder payload = new StringBuilder();
+        for (Frame frame : frames) {
+            appendField(payload, frame.getType());
+            appendField(payload, frame.getSender());
+            appendField(payload, Integer.toString(frame.getSenderId()));
+            appendField(payload, frame.getReceiver());
+            appendField(payload, Integer.toString(frame.getReceiverId()));
+            appendField(payload, frame.getPayload());
+        }
+        return new Frame(ConnectionHandler.USER_NONE, ConnectionHandler.USER_NONE, ConnectionHandler.DATA_TYPE_BATCH,
+            payload.toString());
+    }
+
+    /**
+     * Unpacks the frames of a BATCH frame.
+     * @param batch BATCH frame
+     * @return the packed frames, in the order they were packed
+     * @throws ChatProtocolException if the payload is not a valid batch
+     */
+    public static List<Frame> unpack(Frame batch) throws ChatProtocolException {
+        String payload = batch.getPayload();
+        List<Frame> frames = new ArrayList<>();
+        if (payload == null) return frames;
+        int[] position = {0};
+        try {
+            while (position[0] < payload.length()) {
+                String type = readField(payload, position);
+                String sender = readField(payload, position);
+                int senderId = Integer.parseInt(readField(payload, position));
+                String receiver = readField(payload, position);
+                int receiverId = Integer.parseInt(readField(payload, position));
+                String framePayload = readField(payload, position);
+                if (type == null) throw new ChatProtocolException("Invalid batch: missing type");
+                frames.add(new Frame(sender, senderId, receiver, receiverId, type, framePayload));
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new ChatProtocolException("Invalid batch: " + e.getMessage());
+        }
+        return frames;
+    }
+
+    private static void appendField(StringBuilder payload, String value) {
+        if (value == null) {
+            payload.append(NULL_FIELD);
+        } else {
+            payload.append(value.length()).append(':').append(value);
+        }
+    }
+
+    private static String readField(String payload, int[] position) throws ChatProtocolException {
+        int start = position[0];
+        if (payload.charAt(start) == NULL_FIELD) {
+            position[0] = start + 1;
+            return null;
+        }
+        int colon = payload.indexOf(':', start);
+        if (colon < 0) throw new ChatProtocolException("Invalid batch: missing field length");
+        int length = Integer.parseInt(payload.substring(start, colon));
+        if (length < 0) throw new ChatProtocolException("Invalid batch: negative field length");
+        position[0] = colon + 1 + length;
+        return payload.substring(colon + 1, position[0]);
+    }
+}
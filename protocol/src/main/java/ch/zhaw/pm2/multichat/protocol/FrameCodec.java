@@ -0,0 +1,330 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoder and decoder of the compact binary wire format ({@link WireFormat#BINARY}).
+ * <p>Each frame is length-prefixed and written without any reflection based serialization:</p>
+ * <pre>
+ *  magic     1 byte   0xCB (a Java serialization stream starts with 0xAC, which allows to detect the format)
+ *  length    4 bytes  number of bytes following the length field
+ *  type      1 byte   data type code (see {@link #typeCode(String)})
+ *  flags     1 byte   bit 0: payload is null, bit 1: payload is compressed, bit 2: sender ID, bit 3: receiver ID
+ *  sender    2 bytes length + UTF-8 bytes, followed by the 4 bytes user ID if bit 2 is set
+ *  receiver  2 bytes length + UTF-8 bytes, followed by the 4 bytes user ID if bit 3 is set
+ *  payload   UTF-8 bytes up to the end of the frame
+ * </pre>
+ * <p>A user addressed by ID may have an empty name (see {@link Capabilities#USER_IDS}).</p>
+ * <p>A compressed payload ({@link WireFormat#BINARY_COMPRESSED}) consists of the length of the UTF-8 bytes (4 bytes)
+ * followed by the Deflate compressed UTF-8 bytes. Only payloads of at least {@link #COMPRESSION_THRESHOLD} bytes are
+ * compressed, and only if this makes the frame smaller. Decoding always accepts compressed payloads.</p>
+ */
+public final class FrameCodec {
+    /** First byte of each binary frame. */
+    public static final int MAGIC = 0xCB;
+    /** Size of magic and length field. */
+    public static final int HEADER_SIZE = 5;
+    /** Maximum accepted size of a frame. */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    /** Minimum size of a payload in bytes to be compressed. Smaller payloads do not gain enough to be worth it. */
+    public static final int COMPRESSION_THRESHOLD = 512;
+
+    private static final int FLAG_NULL_PAYLOAD = 0x01;
+    private static final int FLAG_COMPRESSED = 0x02;
+    private static final int FLAG_SENDER_ID = 0x04;
+    private static final int FLAG_RECEIVER_ID = 0x08;
+    private static final int MIN_BODY_SIZE = 6;
+    private static final byte[] EMPTY = new byte[0];
+    // Deflater and Inflater hold native memory until they are ended. A few are pooled for reuse, the ones not fitting
+    // into the pool are ended at once, so the native memory does not grow with the number of threads
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private FrameCodec() {}
+
+    /**
+     * Encodes the frame into a new byte array, including magic and length field.
+     * @param frame frame to encode
+     * @return encoded frame
+     * @throws IllegalArgumentException if the type is unknown or a name is too long
+     */
+    public static byte[] encode(Frame frame) {
+        return encode(frame, false);
+    }
+
+    /**
+     * Encodes the frame into a new byte array, including magic and length field.
+     * @param frame     frame to encode
+     * @param compress  true to compress the payload if it is at least {@link #COMPRESSION_THRESHOLD} bytes long
+     * @return encoded frame
+     * @throws IllegalArgumentException if the type is unknown or a name is too long
+     */
+    public static byte[] encode(Frame frame, boolean compress) {
+        byte type = typeCode(frame.getType());
+        byte[] sender = utf8(frame.getSender());
+        byte[] receiver = utf8(frame.getReceiver());
+        byte[] payload = utf8(frame.getPayload());
+        if (sender.length > 0xFFFF || receiver.length > 0xFFFF) {
+            throw new IllegalArgumentException("User name too long");
+        }
+        int flags = frame.getPayload() == null ? FLAG_NULL_PAYLOAD : 0;
+        int idLength = 0;
+        if (frame.getSenderId() != Frame.NO_ID) {
+            flags |= FLAG_SENDER_ID;
+            idLength += 4;
+        }
+        if (frame.getReceiverId() != Frame.NO_ID) {
+            flags |= FLAG_RECEIVER_ID;
+            idLength += 4;
+        }
+        if (compress && payload.length >= COMPRESSION_THRESHOLD) {
+            byte[] compressed = deflate(payload);
+            if (compressed != null) {
+                payload = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+        int bodyLength = MIN_BODY_SIZE + sender.length + receiver.length + idLength + payload.length;
+        if (bodyLength > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame too large: " + bodyLength);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        buffer.put((byte) MAGIC)
+            .putInt(bodyLength)
+            .put(type)
+            .put((byte) flags)
+            .putShort((short) sender.length).put(sender);
+        if ((flags & FLAG_SENDER_ID) != 0) buffer.putInt(frame.getSenderId());
+        buffer.putShort((short) receiver.length).put(receiver);
+        if ((flags & FLAG_RECEIVER_ID) != 0) buffer.putInt(frame.getReceiverId());
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    /**
+     * Returns the total length of the binary frame starting at the buffer position.
+     * @param buffer    buffer positioned at the magic byte
+     * @return length of the frame including header, or -1 if the header is not yet complete.
+     * @throws StreamCorruptedException if the header is invalid
+     */
+    public static int frameLength(ByteBuffer buffer) throws StreamCorruptedException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int start = buffer.position();
+        if (Byte.toUnsignedInt(buffer.get(start)) != MAGIC) {
+            throw new StreamCorruptedException("Invalid frame header");
+        }
+        return HEADER_SIZE + checkBodyLength(buffer.getInt(start + 1));
+    }
+
+    /**
+     * Decodes the complete frame at the buffer position and advances the position to the end of the frame.
+     * @param buffer    buffer positioned at the magic byte, containing the complete frame
+     * @return decoded frame
+     * @throws StreamCorruptedException if the frame is invalid
+     */
+    public static Frame decode(ByteBuffer buffer) throws StreamCorruptedException {
+        int length = frameLength(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new StreamCorruptedException("Incomplete frame");
+        }
+        int end = buffer.position() + length;
+        buffer.position(buffer.position() + HEADER_SIZE);
+        Frame frame = decodeBody(buffer, end);
+        buffer.position(end);
+        return frame;
+    }
+
+    /**
+     * Reads a complete frame from the stream.
+     * @param in    stream positioned at the magic byte
+     * @return decoded frame
+     * @throws IOException if reading fails or the frame is invalid
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != MAGIC) {
+            throw new StreamCorruptedException("Invalid frame header");
+        }
+        byte[] body = new byte[checkBodyLength(in.readInt())];
+        in.readFully(body);
+        return decodeBody(ByteBuffer.wrap(body), body.length);
+    }
+
+    private static Frame decodeBody(ByteBuffer buffer, int end) throws StreamCorruptedException {
+        try {
+            String type = typeName(buffer.get());
+            int flags = buffer.get();
+            String sender = readString(buffer, Short.toUnsignedInt(buffer.getShort()));
+            int senderId = (flags & FLAG_SENDER_ID) != 0 ? buffer.getInt() : Frame.NO_ID;
+            String receiver = readString(buffer, Short.toUnsignedInt(buffer.getShort()));
+            int receiverId = (flags & FLAG_RECEIVER_ID) != 0 ? buffer.getInt() : Frame.NO_ID;
+            String payload;
+            if ((flags & FLAG_NULL_PAYLOAD) != 0) {
+                payload = null;
+            } else if ((flags & FLAG_COMPRESSED) != 0) {
+                payload = inflate(buffer, end);
+            } else {
+                payload = readString(buffer, end - buffer.position());
+            }
+            return new Frame(sender, senderId, receiver, receiverId, type, payload);
+        } catch (RuntimeException e) {
+            throw new StreamCorruptedException("Invalid frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compresses the payload into the compressed payload format.
+     * @return length followed by the compressed bytes, or null if compressing does not make the payload smaller
+     */
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) deflater = new Deflater();
+        try {
+            return deflate(deflater, payload);
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) deflater.end();
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] payload) {
+        deflater.setInput(payload);
+        deflater.finish();
+        // the result is only used if it is smaller than the uncompressed payload
+        byte[] output = new byte[payload.length];
+        ByteBuffer.wrap(output).putInt(payload.length);
+        int length = 4;
+        while (!deflater.finished() && length < output.length) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(output, 0, result, 0, length);
+        return result;
+    }
+
+    private static String inflate(ByteBuffer buffer, int end) throws StreamCorruptedException {
+        int length = buffer.getInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Invalid uncompressed payload length: " + length);
+        }
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) inflater = new Inflater();
+        try {
+            return inflate(inflater, buffer, end, length);
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) inflater.end();
+        }
+    }
+
+    private static String inflate(Inflater inflater, ByteBuffer buffer, int end, int length)
+        throws StreamCorruptedException {
+        ByteBuffer input = buffer.slice();
+        input.limit(end - buffer.position());
+        inflater.setInput(input);
+        byte[] output = new byte[length];
+        try {
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int count = inflater.inflate(output, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            // reads the end of the stream and verifies the checksum, no more bytes are expected
+            if (!inflater.finished() && inflated == length && inflater.inflate(EMPTY) != 0) {
+                throw new StreamCorruptedException("Compressed payload too long");
+            }
+            if (inflated != length || !inflater.finished()) {
+                throw new StreamCorruptedException("Invalid compressed payload");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed payload: " + e.getMessage());
+        }
+        buffer.position(end);
+        return new String(output, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length == 0) {
+            // e.g. a user addressed by ID
+            return "";
+        }
+        if (!buffer.hasArray()) {
+            // direct or memory mapped buffer
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+            StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int checkBodyLength(int length) throws StreamCorruptedException {
+        if (length < MIN_BODY_SIZE || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? EMPTY : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the binary code of a data type.
+     * @param type  data type name
+     * @return code of the data type
+     * @throws IllegalArgumentException if the type is not supported by the binary format
+     */
+    static byte typeCode(String type) {
+        switch (type) {
+            case ConnectionHandler.DATA_TYPE_CONNECT: return 1;
+            case ConnectionHandler.DATA_TYPE_CONFIRM: return 2;
+            case ConnectionHandler.DATA_TYPE_DISCONNECT: return 3;
+            case ConnectionHandler.DATA_TYPE_MESSAGE: return 4;
+            case ConnectionHandler.DATA_TYPE_ERROR: return 5;
+            case ConnectionHandler.DATA_TYPE_JOIN: return 6;
+            case ConnectionHandler.DATA_TYPE_LEAVE: return 7;
+            case ConnectionHandler.DATA_TYPE_ROOM: return 8;
+            case ConnectionHandler.DATA_TYPE_PING: return 9;
+            case ConnectionHandler.DATA_TYPE_PONG: return 10;
+            case ConnectionHandler.DATA_TYPE_BATCH: return 11;
+            default: throw new IllegalArgumentException("Data type not supported by binary format: " + type);
+        }
+    }
+
+    private static String typeName(byte code) {
+        switch (code) {
+            case 1: return ConnectionHandler.DATA_TYPE_CONNECT;
+            case 2: return ConnectionHandler.DATA_TYPE_CONFIRM;
+            case 3: return ConnectionHandler.DATA_TYPE_DISCONNECT;
+            case 4: return ConnectionHandler.DATA_TYPE_MESSAGE;
+            case 5: return ConnectionHandler.DATA_TYPE_ERROR;
+            case 6: return ConnectionHandler.DATA_TYPE_JOIN;
+            case 7: return ConnectionHandler.DATA_TYPE_LEAVE;
+            case 8: return ConnectionHandler.DATA_TYPE_ROOM;
+            case 9: return ConnectionHandler.DATA_TYPE_PING;
+            case 10: return ConnectionHandler.DATA_TYPE_PONG;
+            case 11: return ConnectionHandler.DATA_TYPE_BATCH;
+            default: throw new IllegalArgumentException("Unknown data type code: " + code);
+        }
+    }
+}
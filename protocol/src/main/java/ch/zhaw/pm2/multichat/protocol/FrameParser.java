@@ -0,0 +1,48 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+/**
+ * Parser for the legacy text representation of a {@link Frame} (see {@link Frame#toText()}).
+ * <p>The text is scanned once without regular expressions: sender, receiver and type are the first three lines,
+ * the payload is the rest of the text without the terminating newline. Therefore the payload may contain newlines
+ * itself. The parser is stateless and can be used by several threads at the same time.</p>
+ */
+public final class FrameParser {
+
+    private FrameParser() {}
+
+    /**
+     * Parses the text representation of a frame.
+     * @param text  text representation: sender, receiver, type and payload, each terminated by a newline
+     * @return parsed frame, the payload is null if the text ends after the type
+     * @throws ChatProtocolException if sender, receiver or type is missing
+     */
+    public static Frame parse(String text) throws ChatProtocolException {
+        int senderEnd = lineEnd(text, 0);
+        if (senderEnd < 0) throw new ChatProtocolException("No Sender found");
+        int receiverEnd = lineEnd(text, senderEnd + 1);
+        if (receiverEnd < 0) throw new ChatProtocolException("No Reciever found");
+        int typeEnd = lineEnd(text, receiverEnd + 1);
+        if (typeEnd < 0) throw new ChatProtocolException("No Type found");
+        String payload = null;
+        int payloadStart = typeEnd + 1;
+        if (payloadStart < text.length()) {
+            int payloadEnd = text.charAt(text.length() - 1) == '\n' ? text.length() - 1 : text.length();
+            payload = text.substring(payloadStart, payloadEnd);
+        }
+        return new Frame(
+            text.substring(0, senderEnd),
+            text.substring(senderEnd + 1, receiverEnd),
+            text.substring(receiverEnd + 1, typeEnd),
+            payload);
+    }
+
+    /**
+     * Returns the end index of the line starting at the given index.
+     * @return index of the terminating newline or the end of the text, -1 if there is no line left.
+     */
+    private static int lineEnd(String text, int start) {
+        if (start >= text.length()) return -1;
+        int end = text.indexOf('\n', start);
+        return end < 0 ? text.length() : end;
+    }
+}
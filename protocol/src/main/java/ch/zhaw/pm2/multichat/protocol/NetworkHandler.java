@@ -2,9 +2,14 @@ package ch.zhaw.pm2.multichat.protocol;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Helper class to support simple network communication.
@@ -32,11 +37,11 @@ import java.util.Objects;
  *     request.</li>
  *     <li>Both sides (server & client) need to handle sending and receiving of data separately
  *         <ul>
- *             <li>reading data: call {@link NetworkConnection#receive()}, which is blocking until a data object is
- *             received. As soon the object has been received, the method returns an instance of the object.
- *             This object (request) can be processed (on the server side, usually a response is sent back;
- *             on the client side, usually the result is displayed to the user). After processing is finished the
- *             process calls {@link NetworkConnection#receive()} again to wait for the next request.
+ *             <li>reading data: call {@link NetworkConnection#startReceiving(Receiver)}, which passes each received
+ *             data object to a {@link Receiver}. This object (request) can be processed (on the server side, usually
+ *             a response is sent back; on the client side, usually the result is displayed to the user).
+ *             A client may also call {@link BlockingConnection#receive()}, which is blocking until a data object is
+ *             received, and call it again after processing it to wait for the next request.
  *             </li>
  *             <li>sending data: call {@link NetworkConnection#send(Serializable data)}, which sends the given data
  *             object to the remote side. The method returns as soon the object has been transmitted.
@@ -46,13 +51,16 @@ import java.util.Objects;
  *         <b>Important:Sending and receiving of data is completely asynchronous and can happen in parallel.</b>
  *     </li>
  *     <li>The connection stays open until one of the peers decides to close it using {@link NetworkConnection#close()}.
- *     In this case, all waiting method calls (e.g. {@link NetworkConnection#receive()} on the opposite side are
- *     interrupted and a {@link EOFException} is thrown.<br>
- *     On the local side, waiting method calls (threads) are also interrupted and a {@link java.net.SocketException}
- *     is thrown.</li>
+ *     In this case, the {@link Receiver} on the opposite side is terminated with an {@link EOFException} (a waiting
+ *     {@link BlockingConnection#receive()} throws it).<br>
+ *     On the local side, the receiver is terminated with a {@link java.net.SocketException}.</li>
  *     <li>To stop receiving new connection requests on the server side, the server may call
  *     {@link NetworkServer#close()} which will close all currently open {@link NetworkConnection} objects.</li>
  * </ul>
+ * <p>As an alternative to the thread per connection model, {@link NetworkHandler#createNioServer(int, int)} creates
+ * a {@link NioNetworkServer}. Its connections are non-blocking and are served by a small, fixed number of event loop
+ * threads. The {@link Receiver} of their connections is called on the event loop instead of a thread per
+ * connection.</p>
  * <p>{@link NetworkServer} and {@link NetworkConnection} are typed using generics. This means, when creating an
  * instance it has to be specified, what types of objects can be sent between server and client. The type has to be
  * identical on both sides of the connection. These Objects have to be of type {@link Serializable}, which is a
@@ -99,21 +107,86 @@ public class NetworkHandler {
         return new NetworkServer<>();
     }
 
+    /**
+     * Creates an instance of a {@link NetworkServer} listening on the specified port, with tuned accept options.
+     * @param port      port to open on the server host (range: 0 - 65535)
+     * @param backlog   maximum number of connection requests queued by the operating system until they are accepted
+     * @param listeners number of server sockets bound to the port using SO_REUSEPORT, each accepting its share of the
+     *                  connection requests (see {@link NetworkServer#waitForConnection(int)}); 1 for a single socket
+     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used, or if several
+     * listeners are requested but SO_REUSEPORT is not supported (see {@link #isReusePortSupported()}).
+     */
+    public static <T extends Serializable> NetworkServer<T> createServer(int port, int backlog, int listeners)
+    throws IOException
+    {
+        return new NetworkServer<>(port, backlog, listeners);
+    }
+
+    /**
+     * Indicates whether several server sockets can be bound to the same port (SO_REUSEPORT, e.g. on Linux), so the
+     * operating system distributes the connection requests among them.
+     * @return true if SO_REUSEPORT is supported, false otherwise
+     */
+    public static boolean isReusePortSupported() {
+        try (ServerSocket socket = new ServerSocket()) {
+            return socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an instance of a {@link NioNetworkServer} listening on the specified port for connection request for
+     * Objects of type T. Instead of one blocking thread per connection, all accepted connections are served by a
+     * fixed number of selector based event loops.
+     * @param port          port to open on the server host (range: 1 - 65535)
+     * @param eventLoops    number of event loop threads serving the accepted connections (at least 1)
+     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NioNetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NioNetworkServer<T> createNioServer(int port, int eventLoops)
+    throws IOException
+    {
+        return new NioNetworkServer<>(port, eventLoops);
+    }
+
+    /**
+     * Creates an instance of a {@link NioNetworkServer} listening on the specified port, with tuned accept options.
+     * The connections accepted by all listeners are shared by the same event loops.
+     * @param port          port to open on the server host (range: 0 - 65535)
+     * @param eventLoops    number of event loop threads serving the accepted connections (at least 1)
+     * @param backlog       maximum number of connection requests queued by the operating system until accepted
+     * @param listeners     number of server sockets bound to the port using SO_REUSEPORT, 1 for a single socket
+     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NioNetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used, or if several
+     * listeners are requested but SO_REUSEPORT is not supported.
+     */
+    public static <T extends Serializable> NioNetworkServer<T> createNioServer(int port, int eventLoops, int backlog,
+                                                                            int listeners)
+    throws IOException
+    {
+        return new NioNetworkServer<>(port, eventLoops, backlog, listeners);
+    }
+
     /**
      * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
      * objects of type T.
      * @param address   {@link InetAddress} object for the host
      * @param port      port number the server is waiting for connection requests
      * @param <T>       type of Objects to be transmitted trough this connection
-     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @return  {@link BlockingConnection} object representing the bidirectional channel between client and server.
      * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
      */
-    public static <T extends Serializable> NetworkConnection<T> openConnection(InetAddress address, int port)
+    public static <T extends Serializable> BlockingConnection<T> openConnection(InetAddress address, int port)
     throws IOException
     {
         Socket socket = new Socket(address, port);
         socket.setKeepAlive(true);
-        return new NetworkConnection<>(socket);
+        return new BlockingConnection<>(socket);
     }
 
     /**
@@ -122,10 +195,10 @@ public class NetworkHandler {
      * @param hostname  server host name or address in String representation (e.g. "www.zhaw.ch", "160.85.104.112")
      * @param port      port number the server is waiting for connection requests
      * @param <T>       type of Objects to be transmitted trough this connection
-     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @return  {@link BlockingConnection} object representing the bidirectional channel between client and server.
      * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
      */
-    public static <T extends Serializable> NetworkConnection<T> openConnection(String hostname, int port)
+    public static <T extends Serializable> BlockingConnection<T> openConnection(String hostname, int port)
     throws IOException
     {
         return openConnection(InetAddress.getByName(hostname), port);
@@ -135,10 +208,10 @@ public class NetworkHandler {
      * Creates an instance of a {@link NetworkConnection} connecting to the default host ("localhost",127.0.0.1,::1)
      * and port (22243) to send and receive objects of type T.
      * @param <T>   type of Objects to be transmitted trough this connection
-     * @return      {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @return      {@link BlockingConnection} object representing the bidirectional channel between client and server.
      * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
      */
-    public static <T extends Serializable> NetworkConnection<T> openConnection()
+    public static <T extends Serializable> BlockingConnection<T> openConnection()
     throws IOException
     {
         return openConnection(DEFAULT_ADDRESS, DEFAULT_PORT);
@@ -148,6 +221,24 @@ public class NetworkHandler {
 
 
 
+    /**
+     * Encodes a data object the way it is written to the wire: {@link Frame} objects in the binary format of
+     * {@link FrameCodec}, all other objects using Java serialization with their own stream header.
+     * @param data  data object to encode
+     * @return encoded data
+     * @throws IOException if the object can not be serialized
+     */
+    static byte[] encode(Serializable data) throws IOException {
+        if (data instanceof Frame) {
+            return FrameCodec.encode((Frame) data);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(data);
+        }
+        return bytes.toByteArray();
+    }
+
     /**
      * Network communication class used on the server side to handle connection request from clients.
      * The class opens a port on the server host and allows the server process to wait for connection requests.
@@ -157,6 +248,8 @@ public class NetworkHandler {
      */
     public static class NetworkServer<T extends Serializable> implements Closeable {
         private ServerSocket serverSocket;
+        // all server sockets bound to the port, the first one is serverSocket
+        private ServerSocket[] listeners;
 
         /**
          * <b>Private constructor: use {@link NetworkHandler#createServer(int port)} factory method to create an instance</b>
@@ -166,6 +259,40 @@ public class NetworkHandler {
          */
         private NetworkServer(int port) throws IOException {
             this.serverSocket = new ServerSocket(port);
+            this.listeners = new ServerSocket[]{serverSocket};
+        }
+
+        /**
+         * <b>Private constructor: use {@link NetworkHandler#createServer(int, int, int)} factory method to create an
+         * instance</b>
+         * Opens one or several server sockets on the given port number.
+         * @param port      port number (range: 0 - 65535) to open to wait for requests.
+         * @param backlog   maximum number of queued connection requests per server socket
+         * @param count     number of server sockets, bound using SO_REUSEPORT if more than one
+         * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
+         */
+        private NetworkServer(int port, int backlog, int count) throws IOException {
+            ServerSocket[] sockets = new ServerSocket[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    sockets[i] = new ServerSocket();
+                    if (count > 1) {
+                        if (!sockets[i].supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                            throw new IOException("SO_REUSEPORT not supported");
+                        }
+                        sockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    }
+                    // the others are bound to the port of the first, also if it has been chosen by the system
+                    sockets[i].bind(new InetSocketAddress(i == 0 ? port : sockets[0].getLocalPort()), backlog);
+                }
+            } catch (IOException e) {
+                for (ServerSocket socket : sockets) {
+                    if (socket != null) socket.close();
+                }
+                throw e;
+            }
+            this.serverSocket = sockets[0];
+            this.listeners = sockets;
         }
 
         /**
@@ -177,6 +304,16 @@ public class NetworkHandler {
             this(DEFAULT_PORT);
         }
 
+        /**
+         * Constructor used by alternative server implementations (e.g. {@link NioNetworkServer}) which open the
+         * server socket themselves.
+         * @param serverSocket  already bound server socket
+         */
+        NetworkServer(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+            this.listeners = new ServerSocket[]{serverSocket};
+        }
+
         /**
          * Blocks the current thread and waits for connection requests on the declared port of the
          * {@link NetworkServer} object. Returns a {@link NetworkConnection} object representing the connection to a
@@ -186,9 +323,28 @@ public class NetworkHandler {
          * the port has been closed using the {@link NetworkServer#close()} method.
          */
         public NetworkConnection<T> waitForConnection() throws IOException {
-            Socket socket = serverSocket.accept();
+            return waitForConnection(0);
+        }
+
+        /**
+         * Waits for connection requests on one of the server sockets, like {@link #waitForConnection()}. Several
+         * threads may wait on the same or on different server sockets at the same time.
+         * @param listener  index of the server socket (0 to {@link #getListeners()} - 1)
+         * @return  {@link NetworkConnection} object representing the connection to the connecting client.
+         * @throws IOException if an error occurred while waiting, e.g. the server has been closed
+         */
+        public NetworkConnection<T> waitForConnection(int listener) throws IOException {
+            Socket socket = listeners[listener].accept();
             socket.setKeepAlive(true);
-            return new NetworkConnection<>(socket);
+            return new BlockingConnection<>(socket);
+        }
+
+        /**
+         * Returns the number of server sockets bound to the port.
+         * @return number of server sockets, more than 1 only if SO_REUSEPORT is used
+         */
+        public int getListeners() {
+            return listeners.length;
         }
 
         /**
@@ -235,8 +391,21 @@ public class NetworkHandler {
          */
         @Override
         public void close() throws IOException {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            stopAccepting();
+        }
+
+        /**
+         * Closes the server port, so no more connections are accepted, but keeps the accepted connections open,
+         * e.g. to close them gracefully. Blocking calls of {@link NetworkServer#waitForConnection()} throw a
+         * {@link java.net.SocketException}. {@link #close()} must still be called to release all resources.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        public void stopAccepting() throws IOException {
+            for (ServerSocket listener : listeners) {
+                if (listener != null && !listener.isClosed()) {
+                    listener.close();
+                }
             }
         }
 
@@ -254,6 +423,28 @@ public class NetworkHandler {
         }
     }
 
+    /**
+     * Callback interface to receive the objects of a {@link NetworkConnection}, see
+     * {@link NetworkConnection#startReceiving(Receiver)}. The methods are called by one thread at a time: the
+     * receiving thread of a blocking connection or the event loop of an event driven connection, where they must
+     * not block.
+     * @param <T> type of the received Objects
+     */
+    public interface Receiver<T> {
+        /**
+         * Called for each object received through the connection.
+         * @param data received data object
+         */
+        void received(T data);
+
+        /**
+         * Called once the connection is terminated. A {@link java.net.SocketException} indicates a local close, an
+         * {@link EOFException} a close by the remote side.
+         * @param cause the reason of the termination
+         */
+        void terminated(IOException cause);
+    }
+
     /**
      * Network communication class representing a bidirectional connection between two peers (client and server),
      * to send and receive Objects of type T.
@@ -261,14 +452,15 @@ public class NetworkHandler {
      * {@link NetworkHandler#openConnection(String hostname, int port)} to connect to the specified server.
      * On the server side, the {@link NetworkServer#waitForConnection()} method is creating a matching instance for the
      * connecting client.
+     * <p>This class is the common base of the blocking {@link BlockingConnection} and the event driven
+     * {@link NioNetworkServer.NioConnection}.</p>
      *
      * <li>On an open connection, both sides (server & client) need to handle sending and receiving of data separately
      * <ul>
-     *     <li>reading data: call {@link NetworkConnection#receive()}, which is blocking until a data object is
-     *         received. As soon the object has been received, the method returns an instance of the object.
-     *         This object (request) can be processed (on the server side, usually a response is sent back;
-     *         on the client side, usually the result is displayed to the user). After processing is finished the
-     *         process calls {@link NetworkConnection#receive()} again to wait for the next request.
+     *     <li>reading data: call {@link NetworkConnection#startReceiving(Receiver)}, which pushes each received data
+     *         object to the given {@link Receiver}. The object (request) can be processed (on the server side,
+     *         usually a response is sent back; on the client side, usually the result is displayed to the user).
+     *         Blocking connections opened by a client can also be read using {@link BlockingConnection#receive()}.
      *     </li>
      *     <li>sending data: call {@link NetworkConnection#send(Serializable data)}, which sends the given data
      *         object to the remote side. The method returns as soon the object has been transmitted.
@@ -278,22 +470,23 @@ public class NetworkHandler {
      * </ul>
      * <p><b>Important: Sending and receiving of data is completely asynchronous and can happen in parallel.</b>
      * The connection stays open until one of the peers decides to close it using {@link NetworkConnection#close()}.<br>
-     * In this case, all waiting method calls (e.g. {@link NetworkConnection#receive()} on the opposite side are
-     * interrupted and a {@link EOFException} is thrown.<br>
-     * On the local side, waiting method calls (threads) are also interrupted and a {@link java.net.SocketException}
-     * is thrown.</p>
+     * In this case, the {@link Receiver} of the opposite side is terminated with an {@link EOFException}, the
+     * local one with a {@link java.net.SocketException}.</p>
      *
      * @param <T> type of Objects to be transmitted trough this connection
      */
-    public static class NetworkConnection<T extends Serializable> implements Closeable {
-        private Socket socket;
+    public abstract static class NetworkConnection<T extends Serializable> implements Closeable {
+        // traffic counters, cheap to update and read concurrently (e.g. by metrics)
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final Socket socket;
 
         /**
-         * <b>Privat constructor: Use {@link NetworkHandler#openConnection(String hostname, int port)} and similar
-         * factory methods to create instances of {@link NetworkConnection}</b>
+         * <b>Package private constructor: Use {@link NetworkHandler#openConnection(String hostname, int port)} and
+         * similar factory methods to create instances of {@link NetworkConnection}</b>
          * @param socket   operating system socket to use for the communication.
          */
-        private NetworkConnection(Socket socket) {
+        NetworkConnection(Socket socket) {
             this.socket = socket;
         }
 
@@ -302,27 +495,116 @@ public class NetworkHandler {
          * submitted successfully. Data can also be sent, while another thread is waiting for requests, but it has
          * to be made sure that only one thread is sending data at a time (not thread-safe).
          * If an error occurs a {@link IOException} is thrown.
+         * {@link Frame} objects are written in the compact binary format of {@link FrameCodec}, all other objects
+         * using Java serialization.
          * @param data  data object of type T to be submitted through the connection.
          * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
          */
         public void send(T data) throws IOException {
-            ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-            outputStream.writeObject(data);
+            sendEncoded(encode(data));
         }
 
         /**
-         * Method to receive data from the opposite side. The call is blocking until a requests comes in, and the
-         * transferred object is returned.
-         * If the connection is closed during waiting, a {@link java.net.SocketException} is thrown, if the close
-         * was initiated locally or {@link EOFException} is thrown if the connection is closed from the remote side.
-         * Other {@link IOException} may be thrown on any another communication error.
-         * @return data object of type T received through the connection.
-         * @throws IOException if an error occours. (e.g. terminated locally/remotely) see above.
-         * @throws ClassNotFoundException if the data object received does not match any class in the local classpath
+         * Method to send data which has already been encoded for the wire (see {@link EncodedFrame}). This allows
+         * to encode data once and send the same bytes through several connections. Otherwise the same rules as
+         * for {@link #send(Serializable)} apply.
+         * @param data  encoded data, which is not modified
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
          */
-        public T receive() throws IOException, ClassNotFoundException {
-            ObjectInputStream inputStream = new ObjectInputStream(this.socket.getInputStream());
-            return (T) inputStream.readObject();
+        public abstract void sendEncoded(byte[] data) throws IOException;
+
+        /**
+         * Method to send a batch of encoded data. All data is written into the output buffer and flushed once,
+         * which results in as few socket writes (and TCP segments) as possible. Otherwise the same rules as for
+         * {@link #sendEncoded(byte[])} apply.
+         * @param batch encoded data objects, which are not modified
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
+         */
+        public abstract void sendEncoded(List<byte[]> batch) throws IOException;
+
+        /**
+         * Enables or disables TCP_NODELAY (i.e. disables or enables Nagle's algorithm) for this connection.
+         * With TCP_NODELAY, small writes are sent immediately (low latency), without it the operating system delays
+         * small segments to combine them (higher throughput).
+         * @param enabled true to enable TCP_NODELAY
+         * @throws IOException if the option can not be set
+         */
+        public void setTcpNoDelay(boolean enabled) throws IOException {
+            socket.setTcpNoDelay(enabled);
+        }
+
+        /**
+         * Indicates whether TCP_NODELAY is enabled for this connection.
+         * @return true if TCP_NODELAY is enabled
+         * @throws IOException if the option can not be read
+         */
+        public boolean getTcpNoDelay() throws IOException {
+            return socket.getTcpNoDelay();
+        }
+
+        /**
+         * Returns the number of bytes sent through this connection so far.
+         * @return number of bytes written to the socket
+         */
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        /**
+         * Returns the number of bytes received through this connection so far.
+         * @return number of bytes read from the socket
+         */
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * Indicates if sending blocks the calling thread until the data has been written to the socket, i.e. as
+         * long as the peer does not read. True for blocking connections, non-blocking connections queue the data.
+         * @return true if {@link #send(Serializable)} may block
+         */
+        public boolean isBlocking() {
+            return true;
+        }
+
+        /**
+         * Indicates if data can be sent without piling up in local buffers. Blocking connections are always
+         * writable, because {@link #send(Serializable)} blocks until the data is written.
+         * @return true if the connection accepts more data, false if the peer is not reading fast enough
+         */
+        public boolean isWritable() {
+            return true;
+        }
+
+        /**
+         * Runs the action as soon as the connection is writable again (see {@link #isWritable()}).
+         * For blocking connections the action is run immediately.
+         * @param action    action to run, e.g. to continue sending queued data
+         */
+        public void whenWritable(Runnable action) {
+            action.run();
+        }
+
+        /**
+         * Starts receiving data from the opposite side, without blocking the calling thread. Each received data
+         * object is passed to the receiver, in order. Once the connection is closed, the receiver is terminated with
+         * a {@link java.net.SocketException} if the close was initiated locally or an {@link EOFException} if the
+         * connection is closed by the remote side; other {@link IOException} indicate any another communication error.
+         * The wire format is detected for each object: binary frames (see {@link FrameCodec}) are received as
+         * {@link Frame} objects, all other data is deserialized using Java serialization.
+         * @param receiver  callback to be called with the received objects
+         * @param executor  executor starting the thread receiving the data, e.g. a virtual thread; not used by
+         *                  event driven connections
+         */
+        public abstract void startReceiving(Receiver<T> receiver, ConnectionExecutor executor);
+
+        /**
+         * Starts receiving data from the opposite side like {@link #startReceiving(Receiver, ConnectionExecutor)},
+         * using a new platform thread if the connection is blocking.
+         * @param receiver  callback to be called with the received objects
+         */
+        public void startReceiving(Receiver<T> receiver) {
+            startReceiving(receiver, ConnectionExecutor.PLATFORM);
         }
 
         /**
@@ -361,9 +643,8 @@ public class NetworkHandler {
 
         /**
          * Closes this NetworkConnection and releases any system resources associated with it.
-         * If the connection is closed a {@link java.net.SocketException} is thrown on all local waiting threads
-         * (e.g. in {@link NetworkConnection#receive()}), and on the remote side an {@link EOFException} is thrown
-         * on all waiting threads.
+         * If the connection is closed, the local {@link Receiver} is terminated with a
+         * {@link java.net.SocketException}, and on the remote side with an {@link EOFException}.
          * If the connection is already closed then invoking this method has no effect.
          * @throws IOException if an I/O error occurs
          */
@@ -387,4 +668,138 @@ public class NetworkHandler {
             return Objects.hash(socket);
         }
     }
+
+    /**
+     * Blocking connection using a thread per connection: {@link #send(Serializable)} returns once the data has been
+     * written, and {@link #receive()} blocks until a data object is received.
+     * <p><b>Important: {@link BlockingConnection} is not thread safe</b>, therefore make sure that only one thread
+     * at a time is sending data.</p>
+     *
+     * @param <T> type of Objects to be transmitted trough this connection
+     */
+    public static class BlockingConnection<T extends Serializable> extends NetworkConnection<T> {
+        private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+        private DataInputStream inputStream;
+        private OutputStream outputStream;
+
+        /**
+         * <b>Package private constructor: Use {@link NetworkHandler#openConnection(String hostname, int port)} and
+         * similar factory methods to create instances of {@link BlockingConnection}</b>
+         * @param socket   operating system socket to use for the communication.
+         */
+        BlockingConnection(Socket socket) {
+            super(socket);
+        }
+
+        @Override
+        public void sendEncoded(byte[] data) throws IOException {
+            OutputStream out = outputStream();
+            out.write(data);
+            out.flush();
+            bytesSent.add(data.length);
+        }
+
+        @Override
+        public void sendEncoded(List<byte[]> batch) throws IOException {
+            OutputStream out = outputStream();
+            long length = 0;
+            for (byte[] data : batch) {
+                out.write(data);
+                length += data.length;
+            }
+            out.flush();
+            bytesSent.add(length);
+        }
+
+        /**
+         * Starts a thread calling {@link #receive()} in a loop and passing each data object to the receiver, until
+         * the connection is closed or an error occurs.
+         * @param receiver  callback to be called with the received objects
+         * @param executor  executor starting the receiving thread
+         */
+        @Override
+        public void startReceiving(Receiver<T> receiver, ConnectionExecutor executor) {
+            Objects.requireNonNull(receiver, "Receiver must not be null");
+            executor.start("connection-receiver", () -> receiveLoop(receiver));
+        }
+
+        private void receiveLoop(Receiver<T> receiver) {
+            try {
+                while (isAvailable()) {
+                    receiver.received(receive());
+                }
+                receiver.terminated(new SocketException("Socket closed"));
+            } catch (IOException e) {
+                receiver.terminated(e);
+            } catch (ClassNotFoundException e) {
+                receiver.terminated(new StreamCorruptedException("Received object of unknown type: " + e.getMessage()));
+            }
+        }
+
+        /**
+         * Method to receive data from the opposite side. The call is blocking until a requests comes in, and the
+         * transferred object is returned. It must not be called while the connection is receiving with
+         * {@link #startReceiving(Receiver)}.
+         * If the connection is closed during waiting, a {@link java.net.SocketException} is thrown, if the close
+         * was initiated locally or {@link EOFException} is thrown if the connection is closed from the remote side.
+         * Other {@link IOException} may be thrown on any another communication error.
+         * The wire format is detected for each object: binary frames (see {@link FrameCodec}) are returned as
+         * {@link Frame} objects, all other data is deserialized using Java serialization.
+         * @return data object of type T received through the connection.
+         * @throws IOException if an error occours. (e.g. terminated locally/remotely) see above.
+         * @throws ClassNotFoundException if the data object received does not match any class in the local classpath
+         */
+        @SuppressWarnings("unchecked")
+        public T receive() throws IOException, ClassNotFoundException {
+            DataInputStream in = inputStream();
+            in.mark(1);
+            int first = in.read();
+            if (first < 0) {
+                throw new EOFException("Connection terminated by remote");
+            }
+            in.reset();
+            if (first == FrameCodec.MAGIC) {
+                return (T) FrameCodec.read(in);
+            }
+            ObjectInputStream objectInputStream = new ObjectInputStream(in);
+            return (T) objectInputStream.readObject();
+        }
+
+        private DataInputStream inputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new DataInputStream(new BufferedInputStream(new CountingInputStream(socket.getInputStream())));
+            }
+            return inputStream;
+        }
+
+        private OutputStream outputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE);
+            }
+            return outputStream;
+        }
+
+        /**
+         * Counts the bytes read from the socket.
+         */
+        private class CountingInputStream extends FilterInputStream {
+            CountingInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytesReceived.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) bytesReceived.add(read);
+                return read;
+            }
+        }
+    }
 }
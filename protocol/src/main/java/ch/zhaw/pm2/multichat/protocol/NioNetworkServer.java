@@ -0,0 +1,646 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler.Receiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking implementation of {@link NetworkHandler.NetworkServer} based on {@link Selector} and
+ * {@link SocketChannel}.
+ * <p>Connections are accepted the same way as with the blocking server by calling {@link #waitForConnection()}.
+ * Each accepted connection is assigned round robin to one of a fixed number of event loops. An event loop is a single
+ * thread waiting on a {@link Selector} for all of its connections. It reads and decodes incoming data and writes
+ * out pending data. This way a server can hold tens of thousands of mostly idle connections without having a thread
+ * (and its stack) per client.</p>
+ * <p>The returned {@link NioConnection} objects push the received objects to the {@link Receiver} registered using
+ * {@link NioConnection#startReceiving(Receiver)}, instead of using a thread per connection. The receiver is called on
+ * the event loop thread and therefore must not block. Sending is thread safe and does not block: the data is queued
+ * and written out by the event loop.</p>
+ * <p>The wire format is identical to the one of {@link NetworkHandler.NetworkConnection}, therefore the clients do
+ * not notice which server implementation is used. Only {@link String} and {@link Frame} objects can be
+ * received.</p>
+ *
+ * @param <T> type of the Objects to be transmitted in the created {@link NioConnection}
+ */
+public class NioNetworkServer<T extends Serializable> extends NetworkHandler.NetworkServer<T> {
+    private static final Logger logger = Logger.getLogger(NioNetworkServer.class.getCanonicalName());
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private static final int HIGH_WATER_MARK = 256 * 1024;
+    private static final int LOW_WATER_MARK = 64 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    private final ServerSocketChannel[] serverChannels;
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger(0);
+
+    /**
+     * <b>Package private constructor: use {@link NetworkHandler#createNioServer(int, int)} factory method to create
+     * an instance</b>
+     * Opens the server port and starts the event loop threads.
+     * @param port          port number (range: 1 - 65535) to open to wait for requests.
+     * @param eventLoops    number of event loop threads (at least 1)
+     * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
+     */
+    NioNetworkServer(int port, int eventLoops) throws IOException {
+        this(port, eventLoops, 0, 1);
+    }
+
+    /**
+     * <b>Package private constructor: use {@link NetworkHandler#createNioServer(int, int, int, int)} factory method to
+     * create an instance</b>
+     * Opens one or several server sockets on the port and starts the event loop threads.
+     * @param port          port number (range: 0 - 65535) to open to wait for requests.
+     * @param eventLoops    number of event loop threads (at least 1)
+     * @param backlog       maximum number of queued connection requests per server socket, 0 for the system default
+     * @param listeners     number of server sockets, bound using SO_REUSEPORT if more than one
+     * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
+     */
+    NioNetworkServer(int port, int eventLoops, int backlog, int listeners) throws IOException {
+        this(openChannels(listeners), port, eventLoops, backlog);
+    }
+
+    private NioNetworkServer(ServerSocketChannel[] serverChannels, int port, int eventLoopCount, int backlog)
+    throws IOException
+    {
+        super(serverChannels[0].socket());
+        this.serverChannels = serverChannels;
+        if (eventLoopCount < 1) {
+            closeChannels();
+            throw new IllegalArgumentException("At least one event loop is required: " + eventLoopCount);
+        }
+        this.eventLoops = new EventLoop[eventLoopCount];
+        try {
+            for (int i = 0; i < serverChannels.length; i++) {
+                // the others are bound to the port of the first, also if it has been chosen by the system
+                int listenerPort = i == 0 ? port : serverChannels[0].socket().getLocalPort();
+                serverChannels[i].bind(new InetSocketAddress(listenerPort), backlog);
+            }
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i] = new EventLoop("nio-event-loop-" + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+    }
+
+    private static ServerSocketChannel[] openChannels(int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one listener is required: " + count);
+        }
+        ServerSocketChannel[] channels = new ServerSocketChannel[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                channels[i] = ServerSocketChannel.open();
+                if (count > 1) {
+                    if (!channels[i].supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                        throw new IOException("SO_REUSEPORT not supported");
+                    }
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * Blocks the current thread and waits for connection requests on the declared port. The accepted connection is
+     * switched to non-blocking mode and assigned to one of the event loops.
+     * @return  {@link NioConnection} object representing the connection to the connecting client.
+     * @throws IOException if an error occurred while waiting (e.g. throws a {@link SocketException} if
+     * the port has been closed using the {@link NioNetworkServer#close()} method.
+     */
+    @Override
+    public NioConnection<T> waitForConnection() throws IOException {
+        return waitForConnection(0);
+    }
+
+    /**
+     * Waits for connection requests on one of the server sockets, like {@link #waitForConnection()}. The connections
+     * of all server sockets are handed over to the same event loops, so an acceptor thread only accepts.
+     * @param listener  index of the server socket (0 to {@link #getListeners()} - 1)
+     * @return  {@link NioConnection} object representing the connection to the connecting client.
+     * @throws IOException if an error occurred while waiting, e.g. the server has been closed
+     */
+    @Override
+    public NioConnection<T> waitForConnection(int listener) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = serverChannels[listener].accept();
+        } catch (ClosedChannelException e) {
+            throw new SocketException("Server socket closed");
+        }
+        channel.configureBlocking(false);
+        channel.socket().setKeepAlive(true);
+        return new NioConnection<>(channel, nextEventLoop());
+    }
+
+    @Override
+    public int getListeners() {
+        return serverChannels.length;
+    }
+
+    private EventLoop nextEventLoop() {
+        return eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+    }
+
+    /**
+     * Closes the server ports and stops the event loops. All connections served by the event loops are closed.
+     * If the Server is already closed then invoking this method has no effect.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        stopAccepting();
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Closes the server ports, the accepted connections stay open and are still served by the event loops.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void stopAccepting() throws IOException {
+        super.stopAccepting();
+        closeChannels();
+    }
+
+    private void closeChannels() throws IOException {
+        for (ServerSocketChannel channel : serverChannels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * A single thread serving a set of non-blocking connections registered with its {@link Selector}.
+     * Other threads pass work to the event loop using {@link #execute(Runnable)}.
+     */
+    static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            logger.log(Level.FINE, "Event loop {0} started", thread.getName());
+            while (running) {
+                try {
+                    selector.select();
+                    runTasks();
+                    processSelectedKeys();
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Event loop error: {0}", e.getMessage());
+                }
+            }
+            closeAll();
+            logger.log(Level.FINE, "Event loop {0} stopped", thread.getName());
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "Event loop task failed", e);
+                }
+            }
+        }
+
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioConnection<?> connection = (NioConnection<?>) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        connection.handleRead();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                } catch (CancelledKeyException e) {
+                    connection.terminate(new SocketException("Socket closed"));
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "Failed to process connection event", e);
+                    connection.closeQuietly();
+                    connection.terminate(new SocketException("Connection aborted: " + e.getMessage()));
+                }
+            }
+        }
+
+        private void closeAll() {
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                NioConnection<?> connection = (NioConnection<?>) key.attachment();
+                connection.closeQuietly();
+                connection.terminate(new SocketException("Server closed"));
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close selector: {0}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Non-blocking connection served by an {@link EventLoop}.
+     * <p>Data to send is encoded on the calling thread and queued; the event loop writes it out as soon as the
+     * socket is writable. Received data is decoded on the event loop and pushed to the {@link Receiver}.</p>
+     * @param <T> type of Objects to be transmitted trough this connection
+     */
+    public static class NioConnection<T extends Serializable> extends NetworkHandler.NetworkConnection<T> {
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private final AtomicBoolean terminated = new AtomicBoolean(false);
+        private final AtomicBoolean closing = new AtomicBoolean(false);
+        private final AtomicLong pendingBytes = new AtomicLong(0);
+        private final AtomicReference<Runnable> writableAction = new AtomicReference<>();
+        private volatile Receiver<T> receiver;
+        // only accessed by the event loop thread
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+
+        NioConnection(SocketChannel channel, EventLoop eventLoop) {
+            super(channel.socket());
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+        }
+
+        /**
+         * Registers the connection with its event loop and starts pushing the received objects to the given receiver.
+         * Data sent before calling this method is kept queued until the connection is registered.
+         * @param receiver callback to be called with the received objects
+         * @param executor not used, the data is received by the event loop
+         */
+        @Override
+        public void startReceiving(Receiver<T> receiver, ConnectionExecutor executor) {
+            this.receiver = Objects.requireNonNull(receiver, "Receiver must not be null");
+            eventLoop.execute(this::register);
+        }
+
+        /**
+         * Queues the encoded data to be sent to the opposite side and returns immediately.
+         * In contrast to the blocking connection this method is thread-safe.
+         * @param data  encoded data, which is not modified
+         * @throws IOException if the connection is closed
+         */
+        @Override
+        public void sendEncoded(byte[] data) throws IOException {
+            if (isClosed()) {
+                throw new SocketException("Socket closed");
+            }
+            pendingBytes.addAndGet(data.length);
+            outbound.add(ByteBuffer.wrap(data));
+            scheduleFlush();
+        }
+
+        /**
+         * Queues a batch of encoded data and returns immediately. The event loop writes the queued data using
+         * gathering writes.
+         * @param batch encoded data objects, which are not modified
+         * @throws IOException if the connection is closed
+         */
+        @Override
+        public void sendEncoded(List<byte[]> batch) throws IOException {
+            if (isClosed()) {
+                throw new SocketException("Socket closed");
+            }
+            for (byte[] data : batch) {
+                pendingBytes.addAndGet(data.length);
+                outbound.add(ByteBuffer.wrap(data));
+            }
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (eventLoop.inEventLoop()) {
+                flush();
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                eventLoop.execute(this::flush);
+            }
+        }
+
+        /**
+         * Non-blocking connections queue the data and write it on the event loop, sending never blocks.
+         * @return false
+         */
+        @Override
+        public boolean isBlocking() {
+            return false;
+        }
+
+        /**
+         * Indicates if the queued data is below the high water mark (256 KiB). If the peer does not read fast
+         * enough, the connection becomes unwritable until the queued data drops below the low water mark (64 KiB).
+         * @return true if the connection accepts more data, false otherwise
+         */
+        @Override
+        public boolean isWritable() {
+            return pendingBytes.get() < HIGH_WATER_MARK;
+        }
+
+        /**
+         * Runs the action on the event loop as soon as the queued data drops below the low water mark, or
+         * immediately if the connection is writable. Only the most recently registered action is kept.
+         * @param action    action to run
+         */
+        @Override
+        public void whenWritable(Runnable action) {
+            if (isWritable()) {
+                action.run();
+                return;
+            }
+            writableAction.set(action);
+            if (isWritable()) {
+                runWritableAction();
+            }
+        }
+
+        private void runWritableAction() {
+            Runnable action = writableAction.getAndSet(null);
+            if (action != null) {
+                action.run();
+            }
+        }
+
+        /**
+         * Closes the connection. Data queued so far is written if the socket buffer can take it, like the blocking
+         * connection flushes its data before closing. The receiver is notified with a {@link SocketException} on
+         * the event loop. If the connection is already closed then invoking this method has no effect.
+         */
+        @Override
+        public void close() {
+            if (closing.compareAndSet(false, true)) {
+                eventLoop.execute(this::closeNow);
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closing.get() || super.isClosed();
+        }
+
+        private void closeNow() {
+            flush();
+            closeQuietly();
+            terminate(new SocketException("Socket closed"));
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to close channel: {0}", e.getMessage());
+            }
+        }
+
+        private void register() {
+            try {
+                key = channel.register(eventLoop.selector, SelectionKey.OP_READ, this);
+                flush();
+            } catch (ClosedChannelException e) {
+                terminate(new SocketException("Socket closed"));
+            }
+        }
+
+        private void flush() {
+            flushScheduled.set(false);
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            try {
+                int count;
+                while ((count = gatherOutbound()) > 0) {
+                    // gathering write: one system call for up to MAX_GATHER queued buffers
+                    bytesSent.add(channel.write(gatherBuffers, 0, count));
+                    boolean complete = removeWritten(count);
+                    if (!complete) {
+                        // socket buffer full: continue as soon as the channel is writable again
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                closeQuietly();
+                terminate(e);
+            }
+        }
+
+        private int gatherOutbound() {
+            int count = 0;
+            for (ByteBuffer buffer : outbound) {
+                if (count == MAX_GATHER) break;
+                gatherBuffers[count++] = buffer;
+            }
+            return count;
+        }
+
+        /**
+         * Removes the completely written buffers from the outbound queue.
+         * @return true if all gathered buffers have been written, false otherwise
+         */
+        private boolean removeWritten(int count) {
+            boolean complete = true;
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = gatherBuffers[i];
+                gatherBuffers[i] = null;
+                if (complete && !buffer.hasRemaining()) {
+                    outbound.poll();
+                    if (pendingBytes.addAndGet(-buffer.capacity()) <= LOW_WATER_MARK) {
+                        runWritableAction();
+                    }
+                } else {
+                    complete = false;
+                }
+            }
+            return complete;
+        }
+
+        private void handleRead() {
+            try {
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    closeQuietly();
+                    terminate(new EOFException("Connection terminated by remote"));
+                    return;
+                }
+                bytesReceived.add(read);
+                readBuffer.flip();
+                int required = decodeFrames();
+                readBuffer.compact();
+                if (required > readBuffer.capacity()) {
+                    resizeReadBuffer(required);
+                } else if (readBuffer.capacity() > READ_BUFFER_SIZE && required <= READ_BUFFER_SIZE
+                    && readBuffer.position() <= READ_BUFFER_SIZE) {
+                    // the large frame has been processed, an idle connection must not keep up to MAX_FRAME_SIZE
+                    resizeReadBuffer(READ_BUFFER_SIZE);
+                }
+            } catch (IOException e) {
+                closeQuietly();
+                terminate(e);
+            }
+        }
+
+        /**
+         * Replaces the read buffer by one of the given capacity, which keeps the bytes not decoded yet.
+         * @param capacity  capacity of the new buffer, at least the number of bytes not decoded yet
+         */
+        private void resizeReadBuffer(int capacity) {
+            ByteBuffer resized = ByteBuffer.allocate(capacity);
+            readBuffer.flip();
+            resized.put(readBuffer);
+            readBuffer = resized;
+        }
+
+        /**
+         * Decodes and dispatches all complete frames in the read buffer.
+         * @return the size of the incomplete frame at the buffer position, or 0 if unknown.
+         */
+        @SuppressWarnings("unchecked")
+        private int decodeFrames() throws IOException {
+            while (readBuffer.hasRemaining()) {
+                boolean binary = Byte.toUnsignedInt(readBuffer.get(readBuffer.position())) == FrameCodec.MAGIC;
+                int length = binary ? FrameCodec.frameLength(readBuffer) : serializedFrameLength(readBuffer);
+                if (length < 0 || length > readBuffer.remaining()) {
+                    return Math.max(length, 0);
+                }
+                T data;
+                if (binary) {
+                    data = (T) FrameCodec.decode(readBuffer);
+                } else {
+                    int start = readBuffer.position();
+                    readBuffer.position(start + length);
+                    data = deserialize(readBuffer.array(), readBuffer.arrayOffset() + start, length);
+                }
+                Receiver<T> currentReceiver = receiver;
+                if (currentReceiver != null && !terminated.get()) {
+                    currentReceiver.received(data);
+                }
+            }
+            return 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T deserialize(byte[] bytes, int offset, int length) throws IOException {
+            try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+                return (T) inputStream.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new StreamCorruptedException("Received object of unknown type: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Determines the length of the serialized object at the buffer position. Each object is written with its own
+         * stream header followed by a string record.
+         * @return the length of the frame or -1 if not enough data is available to determine it.
+         * @throws StreamCorruptedException if the data is not a serialized String
+         */
+        private static int serializedFrameLength(ByteBuffer buffer) throws StreamCorruptedException {
+            int start = buffer.position();
+            int available = buffer.remaining();
+            if (available < 5) {
+                return -1;
+            }
+            if (buffer.getShort(start) != ObjectStreamConstants.STREAM_MAGIC
+                || buffer.getShort(start + 2) != ObjectStreamConstants.STREAM_VERSION) {
+                throw new StreamCorruptedException("Invalid stream header");
+            }
+            byte typeCode = buffer.get(start + 4);
+            if (typeCode == ObjectStreamConstants.TC_STRING) {
+                return available < 7 ? -1 : 7 + Short.toUnsignedInt(buffer.getShort(start + 5));
+            } else if (typeCode == ObjectStreamConstants.TC_LONGSTRING) {
+                if (available < 13) {
+                    return -1;
+                }
+                long length = buffer.getLong(start + 5);
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new StreamCorruptedException("Frame too large: " + length);
+                }
+                return 13 + (int) length;
+            }
+            throw new StreamCorruptedException("Unsupported object type: " + typeCode);
+        }
+
+        private void terminate(IOException cause) {
+            Receiver<T> currentReceiver = receiver;
+            if (currentReceiver != null && terminated.compareAndSet(false, true)) {
+                outbound.clear();
+                pendingBytes.set(0);
+                runWritableAction();
+                currentReceiver.terminated(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reconnect delay suggested by the server in the payload of a DISCONNECT frame, e.g. when it shuts down.
+ * <p>The delay is appended to the human readable text as {@code (reconnect after 2345 ms)}, so clients not knowing
+ * the hint simply display it. The server suggests a different, random delay to every client, so the clients of a
+ * restarted server do not all reconnect at the same time.</p>
+ */
+public final class ReconnectHint {
+    private static final Pattern HINT = Pattern.compile("\\(reconnect after (\\d{1,18}) ms\\)$");
+
+    private ReconnectHint() {
+    }
+
+    /**
+     * Creates the payload of a DISCONNECT frame suggesting a reconnect delay.
+     * @param text          human readable reason of the disconnect
+     * @param delayMillis   delay after which the client should reconnect
+     * @return the payload
+     */
+    public static String toPayload(String text, long delayMillis) {
+        return text + " (reconnect after " + Math.max(0, delayMillis) + " ms)";
+    }
+
+    /**
+     * Reads the suggested reconnect delay from the payload of a DISCONNECT frame.
+     * @param payload   payload of the frame, may be null
+     * @return the delay in milliseconds, -1 if the payload does not suggest reconnecting
+     */
+    public static long parse(String payload) {
+        if (payload == null) return -1;
+        Matcher matcher = HINT.matcher(payload);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+}
@@ -0,0 +1,31 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Looks up the factory for virtual threads of the runtime.
+ * The build targets Java 11, so {@code Thread.ofVirtual().factory()} is called through reflection. Only the public
+ * interface {@code Thread.Builder} is used, the builder implementation is not accessible.
+ */
+final class VirtualThreads {
+    private static final Logger logger = Logger.getLogger(VirtualThreads.class.getCanonicalName());
+
+    /** Factory creating unstarted virtual threads, null if the runtime does not support them. */
+    static final ThreadFactory FACTORY = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.log(Level.FINE, "Virtual threads not supported: {0}", e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+/**
+ * Wire formats used to transmit {@link Frame} objects.
+ * <p>Receivers detect the format of each incoming frame by its first byte, therefore the format only has to be
+ * negotiated for the sending direction (see {@link Capabilities}).</p>
+ */
+public enum WireFormat {
+    /** Legacy format: the text representation of the frame, written as Java serialized {@link String}. */
+    SERIALIZED,
+    /** Compact length-prefixed binary format, see {@link FrameCodec}. */
+    BINARY,
+    /** Binary format with Deflate compressed payloads of large frames, see {@link FrameCodec}. */
+    BINARY_COMPRESSED
+}
@@ -0,0 +1,73 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of packing frames into a BATCH frame and unpacking them.
+ */
+class FrameBatchTest {
+
+    @Test
+    void packAndUnpack() throws ChatProtocolException {
+        List<Frame> frames = List.of(
+            new Frame("alice", "bob", "MESSAGE", "hello bob"),
+            new Frame("alice", 3, "", 7, "MESSAGE", "by ID"),
+            new Frame("", "alice", "CONFIRM", null),
+            new Frame("bob", "*", "MESSAGE", ""));
+        Frame batch = FrameBatch.pack(frames);
+        assertEquals("BATCH", batch.getType());
+        assertEquals(frames, FrameBatch.unpack(batch));
+    }
+
+    @Test
+    void packSpecialCharacters() throws ChatProtocolException {
+        // payloads looking like field lengths, separators and null fields
+        List<Frame> frames = List.of(
+            new Frame("a:b", "-", "MESSAGE", "5:hello"),
+            new Frame("alice", "bob", "MESSAGE", "-"),
+            new Frame("Zoë", "bob", "MESSAGE", "line 1\nline 2 😀"));
+        assertEquals(frames, FrameBatch.unpack(FrameBatch.pack(frames)));
+    }
+
+    @Test
+    void packedBatchSurvivesWireFormat() throws Exception {
+        List<Frame> frames = List.of(
+            new Frame("alice", "bob", "MESSAGE", "first"),
+            new Frame("alice", "bob", "MESSAGE", "second"));
+        byte[] encoded = FrameCodec.encode(FrameBatch.pack(frames), true);
+        Frame decoded = FrameCodec.decode(ByteBuffer.wrap(encoded));
+        assertEquals(frames, FrameBatch.unpack(decoded));
+    }
+
+    @Test
+    void unpackEmpty() throws ChatProtocolException {
+        assertEquals(Collections.emptyList(), FrameBatch.unpack(FrameBatch.pack(Collections.emptyList())));
+        assertEquals(Collections.emptyList(), FrameBatch.unpack(new Frame("", "", "BATCH", null)));
+    }
+
+    @Test
+    void unpackInvalid() {
+        assertThrows(ChatProtocolException.class, () -> FrameBatch.unpack(new Frame("", "", "BATCH", "x")));
+        assertThrows(ChatProtocolException.class,
+            () -> FrameBatch.unpack(new Frame("", "", "BATCH", "7:MESSAGE5:alice")));
+        assertThrows(ChatProtocolException.class,
+            () -> FrameBatch.unpack(new Frame("", "", "BATCH", "7:MESSAGE5:alice1:x3:bob1:05:hello")));
+        assertThrows(ChatProtocolException.class,
+            () -> FrameBatch.unpack(new Frame("", "", "BATCH", "-5:alice1:03:bob1:05:hello")));
+    }
+
+    @Test
+    void unpackTruncated() throws ChatProtocolException {
+        String payload = FrameBatch.pack(List.of(new Frame("alice", "bob", "MESSAGE", "hello"))).getPayload();
+        for (int length = 1; length < payload.length(); length++) {
+            Frame truncated = new Frame("", "", "BATCH", payload.substring(0, length));
+            assertThrows(ChatProtocolException.class, () -> FrameBatch.unpack(truncated), "length " + length);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the binary wire format: round trips through {@link FrameCodec#decode(ByteBuffer)} and
+ * {@link FrameCodec#read(DataInputStream)}, and rejection of incomplete or invalid frames.
+ */
+class FrameCodecTest {
+    // offset of the payload in a frame from "alice" to "bob" without IDs: header, type, flags and the two names
+    private static final int PAYLOAD_OFFSET = FrameCodec.HEADER_SIZE + 2 + 2 + 5 + 2 + 3;
+
+    @Test
+    void roundTripWithoutIds() throws IOException {
+        assertRoundTrip(new Frame("alice", "bob", "MESSAGE", "hello bob"));
+    }
+
+    @Test
+    void roundTripWithIds() throws IOException {
+        assertRoundTrip(new Frame("alice", 3, "bob", 7, "MESSAGE", "hello bob"));
+        // a user addressed by ID only has an empty name
+        assertRoundTrip(new Frame("alice", 3, "", 7, "MESSAGE", "hello"));
+    }
+
+    @Test
+    void roundTripWithNullPayload() throws IOException {
+        Frame decoded = assertRoundTrip(new Frame("alice", "", "CONNECT", null));
+        assertNull(decoded.getPayload());
+        assertEquals("", assertRoundTrip(new Frame("alice", "bob", "MESSAGE", "")).getPayload());
+    }
+
+    @Test
+    void roundTripWithUnicode() throws IOException {
+        assertRoundTrip(new Frame("Zoë", "Jürg", "MESSAGE", "Grüezi 😀\nzweite Zeile"));
+    }
+
+    @Test
+    void decodeAdvancesToNextFrame() throws IOException {
+        Frame first = new Frame("alice", "bob", "MESSAGE", "first");
+        Frame second = new Frame("bob", "alice", "MESSAGE", "second");
+        byte[] a = FrameCodec.encode(first);
+        byte[] b = FrameCodec.encode(second);
+        ByteBuffer buffer = ByteBuffer.allocate(a.length + b.length).put(a).put(b).flip();
+        assertEquals(a.length, FrameCodec.frameLength(buffer));
+        assertEquals(first, FrameCodec.decode(buffer));
+        assertEquals(a.length, buffer.position());
+        assertEquals(second, FrameCodec.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void payloadBelowThresholdIsNotCompressed() throws IOException {
+        Frame frame = new Frame("alice", "bob", "MESSAGE", "a".repeat(FrameCodec.COMPRESSION_THRESHOLD - 1));
+        byte[] compressed = FrameCodec.encode(frame, true);
+        assertArrayEquals(FrameCodec.encode(frame), compressed);
+        assertEquals(frame, FrameCodec.decode(ByteBuffer.wrap(compressed)));
+    }
+
+    @Test
+    void payloadAtThresholdIsCompressed() throws IOException {
+        Frame frame = new Frame("alice", "bob", "MESSAGE", "a".repeat(FrameCodec.COMPRESSION_THRESHOLD));
+        byte[] compressed = FrameCodec.encode(frame, true);
+        assertTrue(compressed.length < FrameCodec.encode(frame).length);
+        assertEquals(frame, FrameCodec.decode(ByteBuffer.wrap(compressed)));
+        assertEquals(frame, read(compressed));
+    }
+
+    @Test
+    void compressedRoundTripWithIds() throws IOException {
+        Frame frame = new Frame("alice", 3, "bob", 7, "MESSAGE", "hello bob ".repeat(200));
+        assertEquals(frame, FrameCodec.decode(ByteBuffer.wrap(FrameCodec.encode(frame, true))));
+    }
+
+    @Test
+    void incompleteHeader() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        assertEquals(-1, FrameCodec.frameLength(ByteBuffer.wrap(encoded, 0, FrameCodec.HEADER_SIZE - 1)));
+    }
+
+    @Test
+    void truncatedFrame() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 1);
+        assertEquals(encoded.length, FrameCodec.frameLength(ByteBuffer.wrap(truncated)));
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(truncated)));
+        assertThrows(EOFException.class, () -> read(truncated));
+    }
+
+    @Test
+    void invalidMagic() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        encoded[0] = (byte) 0xAC;
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.frameLength(ByteBuffer.wrap(encoded)));
+        assertThrows(StreamCorruptedException.class, () -> read(encoded));
+    }
+
+    @Test
+    void oversizedLength() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        ByteBuffer.wrap(encoded).putInt(1, FrameCodec.MAX_FRAME_SIZE + 1);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.frameLength(ByteBuffer.wrap(encoded)));
+        assertThrows(StreamCorruptedException.class, () -> read(encoded));
+        ByteBuffer.wrap(encoded).putInt(1, -1);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.frameLength(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void lengthTooShortForHeader() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        ByteBuffer.wrap(encoded).putInt(1, 2);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void unknownType() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        encoded[FrameCodec.HEADER_SIZE] = 99;
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+        assertThrows(StreamCorruptedException.class, () -> read(encoded));
+    }
+
+    @Test
+    void nameLongerThanFrame() throws IOException {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello"));
+        ByteBuffer.wrap(encoded).putShort(FrameCodec.HEADER_SIZE + 2, (short) 0xFFFF);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+        assertThrows(StreamCorruptedException.class, () -> read(encoded));
+    }
+
+    @Test
+    void unknownTypeIsNotEncoded() {
+        assertThrows(IllegalArgumentException.class,
+            () -> FrameCodec.encode(new Frame("alice", "bob", "UNKNOWN", "hello")));
+    }
+
+    @Test
+    void compressedLengthTooLarge() {
+        byte[] encoded = compressedFrame();
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        buffer.putInt(PAYLOAD_OFFSET, buffer.getInt(PAYLOAD_OFFSET) + 1);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void compressedLengthTooSmall() {
+        byte[] encoded = compressedFrame();
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        buffer.putInt(PAYLOAD_OFFSET, buffer.getInt(PAYLOAD_OFFSET) - 1);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void compressedLengthInvalid() {
+        byte[] encoded = compressedFrame();
+        ByteBuffer.wrap(encoded).putInt(PAYLOAD_OFFSET, -1);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+        ByteBuffer.wrap(encoded).putInt(PAYLOAD_OFFSET, FrameCodec.MAX_FRAME_SIZE + 1);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void corruptCompressedData() {
+        byte[] encoded = compressedFrame();
+        for (int i = PAYLOAD_OFFSET + 4; i < encoded.length; i++) {
+            encoded[i] ^= 0x5A;
+        }
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void truncatedCompressedData() throws IOException {
+        byte[] encoded = compressedFrame();
+        // a shorter frame with a consistent length field, but without the end of the compressed stream
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 4);
+        ByteBuffer.wrap(truncated).putInt(1, truncated.length - FrameCodec.HEADER_SIZE);
+        assertThrows(StreamCorruptedException.class, () -> FrameCodec.decode(ByteBuffer.wrap(truncated)));
+    }
+
+    private static byte[] compressedFrame() {
+        byte[] encoded = FrameCodec.encode(new Frame("alice", "bob", "MESSAGE", "hello bob ".repeat(100)), true);
+        assertTrue(encoded.length < PAYLOAD_OFFSET + 1000, "payload must be compressed");
+        return encoded;
+    }
+
+    private static Frame assertRoundTrip(Frame frame) throws IOException {
+        byte[] encoded = FrameCodec.encode(frame);
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        Frame decoded = FrameCodec.decode(buffer);
+        assertEquals(frame, decoded);
+        assertEquals(encoded.length, buffer.position());
+        assertEquals(frame, read(encoded));
+        return decoded;
+    }
+
+    private static Frame read(byte[] encoded) throws IOException {
+        return FrameCodec.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+}
@@ -0,0 +1,61 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the parser of the legacy text representation.
+ */
+class FrameParserTest {
+
+    @Test
+    void parseMessage() throws ChatProtocolException {
+        assertEquals(new Frame("alice", "bob", "MESSAGE", "hello bob"),
+            FrameParser.parse("alice\nbob\nMESSAGE\nhello bob\n"));
+    }
+
+    @Test
+    void parseMultiLinePayload() throws ChatProtocolException {
+        Frame frame = FrameParser.parse("alice\nbob\nMESSAGE\nfirst line\nsecond line\n\nlast line\n");
+        assertEquals("first line\nsecond line\n\nlast line", frame.getPayload());
+        assertEquals("MESSAGE", frame.getType());
+    }
+
+    @Test
+    void parseWithoutTerminatingNewline() throws ChatProtocolException {
+        assertEquals("first\nsecond", FrameParser.parse("alice\nbob\nMESSAGE\nfirst\nsecond").getPayload());
+    }
+
+    @Test
+    void parseEmptyNames() throws ChatProtocolException {
+        Frame frame = FrameParser.parse("\n\nCONNECT\n");
+        assertEquals("", frame.getSender());
+        assertEquals("", frame.getReceiver());
+        assertEquals("CONNECT", frame.getType());
+        assertNull(frame.getPayload());
+    }
+
+    @Test
+    void parseWithoutPayload() throws ChatProtocolException {
+        assertNull(FrameParser.parse("alice\nbob\nDISCONNECT").getPayload());
+    }
+
+    @Test
+    void parseEmptyPayload() throws ChatProtocolException {
+        assertEquals("", FrameParser.parse("alice\nbob\nMESSAGE\n\n").getPayload());
+    }
+
+    @Test
+    void toTextRoundTrip() throws ChatProtocolException {
+        Frame frame = new Frame("alice", "bob", "MESSAGE", "line 1\nline 2\n");
+        assertEquals(frame, FrameParser.parse(frame.toText()));
+    }
+
+    @Test
+    void missingFields() {
+        assertThrows(ChatProtocolException.class, () -> FrameParser.parse(""));
+        assertThrows(ChatProtocolException.class, () -> FrameParser.parse("alice\n"));
+        assertThrows(ChatProtocolException.class, () -> FrameParser.parse("alice\nbob\n"));
+    }
+}
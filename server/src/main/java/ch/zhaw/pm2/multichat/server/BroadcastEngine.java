@@ -0,0 +1,149 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.ConnectionExecutor;
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous fan-out of frames to the connected clients.
+ * <p>A frame is encoded only once and the immutable bytes are shared by all recipients. Sending to a recipient
+ * only queues the frame with the {@link ConnectionWriter} of the connection, the socket writes are done by a shared
+ * pool of writer threads (non-blocking connections) or a writer thread per connection (blocking connections). A
+ * broadcast therefore costs one enqueue per recipient instead of one blocking socket write, and neither the sender
+ * nor the other recipients are stalled by the slowest recipient.</p>
+ * <p>The outbound queues are bounded (see {@link ServerConfig#getOutboundQueueCapacity()}), clients not reading
+ * fast enough are handled according to the {@link OverflowPolicy}.</p>
+ * <p>With {@link ServerConfig#getBroadcastTickMillis() broadcast ticks}, the frames sent to a channel (all users or
+ * a room) are collected during a tick and sent as one BATCH frame per recipient (see {@link BroadcastTicker}).</p>
+ */
+public class BroadcastEngine {
+    /** Channel of the messages to all users. */
+    static final String ALL_USERS = "*";
+
+    private final ScheduledExecutorService writerPool;
+    private final ServerConfig config;
+    private final ConnectionExecutor connectionExecutor;
+    private final BroadcastTicker ticker;
+
+    /**
+     * Creates the engine and its writer pool, the writer threads of blocking connections are platform threads.
+     * @param config    server configuration: number of writer threads and the settings of the connection writers
+     */
+    public BroadcastEngine(ServerConfig config) {
+        this(config, ConnectionExecutor.PLATFORM);
+    }
+
+    /**
+     * Creates the engine and its writer pool.
+     * @param config                server configuration: number of writer threads and the settings of the
+     *                              connection writers
+     * @param connectionExecutor    executor starting the writer threads of blocking connections
+     */
+    public BroadcastEngine(ServerConfig config, ConnectionExecutor connectionExecutor) {
+        // scheduled pool, so writers can delay their first run by the configured flush delay
+        this.writerPool = Executors.newScheduledThreadPool(config.getWriterThreads(), new WriterThreadFactory());
+        this.config = config;
+        this.connectionExecutor = connectionExecutor;
+        this.ticker = config.getBroadcastTickMillis() > 0 ? new BroadcastTicker(config.getBroadcastTickMillis()) : null;
+    }
+
+    /**
+     * Returns the channel of the messages to a room.
+     * @param room  name of the room
+     * @return name of the channel
+     */
+    static String roomChannel(String room) {
+        return "#" + room;
+    }
+
+    /**
+     * Creates the writer of a connection, using the writer pool of this engine. Blocking connections get a writer
+     * thread of their own, so a client not reading does not block a thread of the pool.
+     * @param handler   connection handler to write to
+     * @param blocking  true if writes to the connection block until the client reads
+     * @return the writer of the connection
+     */
+    ConnectionWriter createWriter(ServerConnectionHandler handler, boolean blocking) {
+        WriterThread writerThread = blocking
+            ? new WriterThread(connectionExecutor, "connection-sender") : null;
+        return new ConnectionWriter(writerPool, writerThread, handler, config);
+    }
+
+    /**
+     * Sends the frame to all given recipients.
+     * @param frame         frame to send
+     * @param recipients    handlers of the receiving connections
+     * @return number of recipients the frame has been queued for
+     */
+    public int broadcast(Frame frame, Iterable<ServerConnectionHandler> recipients) {
+        return broadcast(new EncodedFrame(frame), recipients);
+    }
+
+    /**
+     * Sends the encoded frame to all given recipients, e.g. to share its encoding with other consumers.
+     * @param frame         encoded frame to send
+     * @param recipients    handlers of the receiving connections
+     * @return number of recipients the frame has been queued for
+     */
+    public int broadcast(EncodedFrame frame, Iterable<ServerConnectionHandler> recipients) {
+        int count = 0;
+        for (ServerConnectionHandler recipient : recipients) {
+            recipient.enqueue(frame);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Sends the encoded frame to the recipients of a channel, i.e. all users or the members of a room. With
+     * broadcast ticks the frame is sent at the end of the tick, together with the other frames of the channel,
+     * to the recipients at that time. Otherwise it is sent right away.
+     * @param channel       name of the channel, the frames of a channel are sent in order
+     * @param frame         encoded frame to send
+     * @param recipients    supplier of the current recipients of the channel
+     * @return number of current recipients
+     */
+    public int broadcast(String channel, EncodedFrame frame,
+                         Supplier<? extends Collection<ServerConnectionHandler>> recipients) {
+        if (ticker == null) {
+            return broadcast(frame, recipients.get());
+        }
+        ticker.publish(channel, frame, recipients);
+        return recipients.get().size();
+    }
+
+    /**
+     * Sends the frame to a single recipient.
+     * @param frame     frame to send
+     * @param recipient handler of the receiving connection
+     */
+    public void send(Frame frame, ServerConnectionHandler recipient) {
+        recipient.enqueue(new EncodedFrame(frame));
+    }
+
+    /**
+     * Stops the ticker and the writer pool. Frames which are still queued are discarded.
+     */
+    public void shutdown() {
+        if (ticker != null) ticker.shutdown();
+        writerPool.shutdownNow();
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "connection-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.FrameBatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the broadcasts of each channel (all users or a room) during a short tick and sends them at the end of the
+ * tick as a single BATCH frame.
+ * <p>The batch of a channel is encoded once and shared by all its recipients, so a busy channel costs one enqueue
+ * and one write per recipient and tick instead of one per message. Recipients not supporting batches
+ * (see {@link ch.zhaw.pm2.multichat.protocol.Capabilities#BATCH}) get the frames one by one. The recipients are
+ * determined at the end of the tick. Messages are delayed by at most one tick.</p>
+ * <p>Publishing only adds the frame to the lock-free queue of the channel, the fan-out is done by the ticker thread.
+ * Channels without messages during a tick are removed.</p>
+ */
+final class BroadcastTicker {
+    private static final Logger logger = Logger.getLogger(BroadcastTicker.class.getCanonicalName());
+    // limits the size of a BATCH frame, larger batches are split
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * Creates the ticker and starts its thread.
+     * @param tickMillis    duration of a tick
+     */
+    BroadcastTicker(long tickMillis) {
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "broadcast-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a frame to be sent to the recipients of a channel at the end of the current tick.
+     * @param channel       name of the channel
+     * @param frame         encoded frame, shared with other consumers
+     * @param recipients    supplier of the recipients of the channel, called at the end of the tick
+     */
+    void publish(String channel, EncodedFrame frame, Supplier<? extends Collection<ServerConnectionHandler>> recipients) {
+        while (true) {
+            Channel target = channels.computeIfAbsent(channel, name -> new Channel(recipients));
+            target.frames.add(frame);
+            // a channel removed in the meantime is drained once more, unless the frame is still there
+            if (!target.removed || !target.frames.remove(frame)) return;
+        }
+    }
+
+    /**
+     * Stops the ticker thread, frames of the current tick are discarded.
+     */
+    void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            for (Map.Entry<String, Channel> entry : channels.entrySet()) {
+                Channel channel = entry.getValue();
+                if (channel.frames.isEmpty()) {
+                    channel.removed = true;
+                    channels.remove(entry.getKey(), channel);
+                }
+                send(channel);
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            logger.log(Level.WARNING, "Failed to send broadcasts", e);
+        }
+    }
+
+    private void send(Channel channel) {
+        List<EncodedFrame> frames = new ArrayList<>();
+        EncodedFrame frame;
+        while ((frame = channel.frames.poll()) != null) {
+            frames.add(frame);
+        }
+        if (frames.isEmpty()) return;
+        List<EncodedFrame> batches = frames.size() > 1 ? pack(frames) : frames;
+        for (ServerConnectionHandler recipient : channel.recipients.get()) {
+            List<EncodedFrame> toSend = recipient.isBatchSupported() ? batches : frames;
+            for (EncodedFrame encoded : toSend) {
+                recipient.enqueue(encoded);
+            }
+        }
+    }
+
+    private static List<EncodedFrame> pack(List<EncodedFrame> frames) {
+        List<EncodedFrame> batches = new ArrayList<>();
+        List<EncodedFrame> batch = new ArrayList<>();
+        int chars = 0;
+        for (EncodedFrame encoded : frames) {
+            String payload = encoded.getFrame().getPayload();
+            int length = payload == null ? 0 : payload.length();
+            if (!batch.isEmpty() && chars + length > MAX_BATCH_CHARS) {
+                batches.add(toBatch(batch));
+                batch.clear();
+                chars = 0;
+            }
+            batch.add(encoded);
+            chars += length;
+        }
+        batches.add(toBatch(batch));
+        return batches;
+    }
+
+    private static EncodedFrame toBatch(List<EncodedFrame> batch) {
+        // a single frame is sent as it is, keeping the encodings already done
+        if (batch.size() == 1) return batch.get(0);
+        List<Frame> frames = new ArrayList<>(batch.size());
+        for (EncodedFrame encoded : batch) {
+            frames.add(encoded.getFrame());
+        }
+        return new EncodedFrame(FrameBatch.pack(frames));
+    }
+
+    /**
+     * Frames of a channel waiting for the end of the tick.
+     */
+    private static final class Channel {
+        private final Queue<EncodedFrame> frames = new ConcurrentLinkedQueue<>();
+        private final Supplier<? extends Collection<ServerConnectionHandler>> recipients;
+        private volatile boolean removed = false;
+
+        private Channel(Supplier<? extends Collection<ServerConnectionHandler>> recipients) {
+            this.recipients = recipients;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent outbound connection from this node to another node of the cluster.
+ * <p>Messages are queued and written by the link's own thread. The thread drains all waiting messages into one
+ * buffered write and flushes once per batch, so under load many relayed messages share one system call and TCP
+ * segment. The peer never writes to the link, so a watcher thread reading from it notices immediately when the peer
+ * closes the link, also if there is nothing to send. The link then reconnects and first announces this node again
+ * (hello and the list of local users owned by the peer), then continues with the queue. Messages of a batch which
+ * failed while writing are lost, they are not sent twice. The queue is bounded, messages are dropped if the peer is
+ * not reachable for a long time.</p>
+ * <p>The link is opened from the configured address of this node, which the peer checks.</p>
+ */
+final class ClusterLink {
+    private static final Logger logger = Logger.getLogger(ClusterLink.class.getCanonicalName());
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int MAX_BATCH = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long RECONNECT_DELAY_MILLIS = 500;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    // queued by the watcher to wake up the writer, writing it fails on the closed socket
+    private static final byte[] WAKE_UP = new byte[0];
+
+    private final ClusterNode node;
+    private final int peer;
+    private final InetSocketAddress address;
+    private final InetAddress localAddress;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final Thread writer;
+    private volatile Socket socket;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the link and starts its thread, which connects to the peer.
+     * @param node      local node
+     * @param peer      number of the peer node
+     * @param address       address of the cluster port of the peer
+     * @param localAddress  configured address of this node, the link is opened from
+     */
+    ClusterLink(ClusterNode node, int peer, InetSocketAddress address, InetAddress localAddress) {
+        this.node = node;
+        this.peer = peer;
+        this.address = address;
+        this.localAddress = localAddress;
+        this.writer = new Thread(this::run, "cluster-link-" + peer);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an encoded message. Returns immediately, the message is dropped if the queue is full.
+     * @param message   encoded message, may be shared with other links and must not be modified
+     */
+    void send(byte[] message) {
+        if (!queue.offer(message)) {
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    /**
+     * Closes the connection and stops the thread. Queued messages are discarded.
+     */
+    void close() {
+        closed = true;
+        writer.interrupt();
+        closeSocket();
+    }
+
+    private void run() {
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+        boolean writing = false;
+        while (!closed) {
+            try {
+                Socket connection = connect();
+                socket = connection;
+                watch(connection);
+                OutputStream out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+                out.write(node.helloMessage());
+                out.write(node.syncMessage(peer));
+                out.flush();
+                logger.log(Level.INFO, "Connected to cluster node {0} at {1}", new Object[]{peer, address});
+                while (!closed) {
+                    // a batch not written before the connection was lost is sent after reconnecting
+                    if (batch.isEmpty()) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, MAX_BATCH - 1);
+                    }
+                    batch.removeIf(message -> message == WAKE_UP);
+                    if (connection.isClosed()) {
+                        throw new IOException("Closed by the peer");
+                    }
+                    writing = true;
+                    for (byte[] message : batch) {
+                        out.write(message);
+                    }
+                    out.flush();
+                    writing = false;
+                    batch.clear();
+                    reportDropped();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.log(Level.WARNING, "Lost connection to cluster node {0}: {1}",
+                        new Object[]{peer, e.getMessage()});
+                    if (writing) {
+                        // unknown which messages have arrived, they are not sent twice
+                        droppedMessages.addAndGet(batch.size());
+                        batch.clear();
+                        writing = false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                closeSocket();
+            }
+        }
+    }
+
+    private void watch(Socket connection) {
+        Thread watcher = new Thread(() -> {
+            try {
+                while (connection.getInputStream().read() >= 0) {
+                    // the peer does not send anything on this link
+                }
+            } catch (IOException ignored) {
+                // closed by the peer or by the writer
+            }
+            if (!closed && !connection.isClosed()) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+                queue.offer(WAKE_UP);
+            }
+        }, "cluster-link-watcher-" + peer);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private Socket connect() throws InterruptedException {
+        while (true) {
+            Socket candidate = new Socket();
+            try {
+                candidate.setTcpNoDelay(true);
+                candidate.bind(new InetSocketAddress(localAddress, 0));
+                candidate.connect(address, CONNECT_TIMEOUT_MILLIS);
+                return candidate;
+            } catch (IOException e) {
+                try {
+                    candidate.close();
+                } catch (IOException ignored) {
+                }
+                logger.log(Level.FINE, "Cluster node {0} not reachable: {1}", new Object[]{peer, e.getMessage()});
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long dropped = droppedMessages.getAndSet(0);
+        if (dropped > 0) {
+            logger.log(Level.WARNING, "Dropped {0} messages to cluster node {1}", new Object[]{dropped, peer});
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to close link to cluster node {0}", peer);
+            }
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.FrameCodec;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Membership of this server in a cluster of server nodes sharing one user namespace.
+ * <p>All nodes are configured with the same list of nodes ({@link ServerConfig#getClusterNodes()}). Every user name
+ * is owned by one node, chosen by a consistent {@link HashRing}. The owner keeps the directory entry of the user: the
+ * node the user is connected to. A node connecting a user claims the name at the owner, so a name is used only once
+ * in the whole cluster. Messages are relayed over persistent {@link ClusterLink}s:</p>
+ * <ul>
+ *     <li>Messages to all users are sent to every node, which delivers them to its local users and stores them in
+ *     its {@link MessageHistory}, so users connecting to any node get them replayed.</li>
+ *     <li>Private messages to users who are not connected locally are routed to the owner of the receiver, which
+ *     forwards them to the node of the receiver. If the user is not connected, the owner stores them in its
+ *     {@link OfflineMailbox} (or answers with an error if the mailboxes are disabled). A node connecting a user
+ *     fetches the stored messages from the owner.</li>
+ * </ul>
+ * <p>If the link from a node is lost, its directory entries are removed; when it reconnects it sends the list of its
+ * users again. Users owned by a node which is down can not connect until the node is back. The cluster mode is
+ * disabled if no nodes are configured.</p>
+ * <p>The cluster port is bound to the configured address of this node only. A link must start with a hello from an
+ * address of the node it names, and all its messages must come from that node; other links are closed.</p>
+ */
+public class ClusterNode {
+    private static final Logger logger = Logger.getLogger(ClusterNode.class.getCanonicalName());
+    private static final int MAX_MESSAGE_SIZE = FrameCodec.MAX_FRAME_SIZE + 64;
+
+    // message types of the inter-node protocol
+    private static final byte HELLO = 1;
+    private static final byte SYNC = 2;
+    private static final byte CLAIM = 3;
+    private static final byte CLAIMED = 4;
+    private static final byte RELEASE = 5;
+    private static final byte BROADCAST = 6;
+    private static final byte ROUTE = 7;
+    private static final byte DELIVER = 8;
+    private static final byte FETCH = 9;
+
+    private final int self;
+    private final List<String> nodes;
+    private final HashRing ring;
+    private final ConnectionRegistry registry;
+    private final BroadcastEngine broadcastEngine;
+    private final MessageHistory history;
+    private final OfflineMailbox mailbox;
+    private final long timeoutMillis;
+    // user name -> node the user is connected to, for the users owned by this node
+    private final Map<String, Integer> directory = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+    private final AtomicLong claimIds = new AtomicLong(0);
+    private final ClusterLink[] links;
+    // current inbound connection of each node, to detect lost nodes
+    private final AtomicReferenceArray<Socket> inbound;
+    private final Set<Socket> inboundSockets = ConcurrentHashMap.newKeySet();
+    private final ServerSocket serverSocket;
+    private volatile boolean closed = false;
+
+    /**
+     * Joins the cluster configured by {@link ServerConfig#getClusterNodes()} and {@link ServerConfig#getClusterSelf()}.
+     * @param config            server configuration
+     * @param registry          registry of the local users
+     * @param broadcastEngine   engine to deliver relayed messages to the local users
+     * @param history           history storing the relayed messages to all users
+     * @param mailbox           mailboxes of the offline users owned by this node
+     * @return the cluster node, disabled if no cluster is configured
+     * @throws IOException if the configuration is invalid or the cluster port can not be opened
+     */
+    public static ClusterNode open(ServerConfig config, ConnectionRegistry registry, BroadcastEngine broadcastEngine,
+                                   MessageHistory history, OfflineMailbox mailbox) throws IOException {
+        List<String> nodes = config.getClusterNodes();
+        if (nodes.isEmpty()) {
+            return new ClusterNode(registry, broadcastEngine, history, mailbox);
+        }
+        int self = nodes.indexOf(config.getClusterSelf());
+        if (self < 0) {
+            throw new IOException("Cluster node " + config.getClusterSelf() + " is not in the node list " + nodes);
+        }
+        return new ClusterNode(self, nodes, registry, broadcastEngine, history, mailbox,
+            config.getClusterTimeoutMillis());
+    }
+
+    private ClusterNode(ConnectionRegistry registry, BroadcastEngine broadcastEngine, MessageHistory history,
+                        OfflineMailbox mailbox) {
+        this.self = 0;
+        this.nodes = Collections.emptyList();
+        this.ring = null;
+        this.registry = registry;
+        this.broadcastEngine = broadcastEngine;
+        this.history = history;
+        this.mailbox = mailbox;
+        this.timeoutMillis = 0;
+        this.links = new ClusterLink[0];
+        this.inbound = new AtomicReferenceArray<>(0);
+        this.serverSocket = null;
+    }
+
+    private ClusterNode(int self, List<String> nodes, ConnectionRegistry registry, BroadcastEngine broadcastEngine,
+                        MessageHistory history, OfflineMailbox mailbox, long timeoutMillis) throws IOException {
+        this.self = self;
+        this.nodes = List.copyOf(nodes);
+        this.ring = new HashRing(nodes);
+        this.registry = registry;
+        this.broadcastEngine = broadcastEngine;
+        this.history = history;
+        this.mailbox = mailbox;
+        this.timeoutMillis = timeoutMillis;
+        this.inbound = new AtomicReferenceArray<>(nodes.size());
+        InetSocketAddress own = address(nodes.get(self));
+        if (own.isUnresolved()) {
+            throw new IOException("Cluster node address can not be resolved: " + nodes.get(self));
+        }
+        this.serverSocket = new ServerSocket(own.getPort(), 0, own.getAddress());
+        this.links = new ClusterLink[nodes.size()];
+        for (int node = 0; node < nodes.size(); node++) {
+            if (node != self) links[node] = new ClusterLink(this, node, address(nodes.get(node)), own.getAddress());
+        }
+        Thread acceptor = new Thread(this::acceptLinks, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.log(Level.INFO, "Cluster node {0} of {1}: {2}", new Object[]{self, nodes.size(), nodes.get(self)});
+    }
+
+    /**
+     * Indicates whether this server is part of a cluster.
+     * @return true if cluster nodes are configured
+     */
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * Claims a user name in the whole cluster for a user connecting to this node. If another node owns the name,
+     * the claim is completed when it answers, by a thread of the common pool; the calling thread is not blocked.
+     * @param userName  name of the user, already claimed in the local registry
+     * @return future completed with true if the name was claimed, false if the user is connected to another node,
+     *         or completed exceptionally with a {@link ChatProtocolException} if the owning node does not answer in
+     *         time
+     */
+    public CompletableFuture<Boolean> claim(String userName) {
+        if (!isEnabled()) return CompletableFuture.completedFuture(true);
+        int owner = ring.nodeFor(userName);
+        if (owner == self) return CompletableFuture.completedFuture(claimOwned(userName, self));
+        long id = claimIds.incrementAndGet();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        pendingClaims.put(id, result);
+        links[owner].send(userMessage(CLAIM, id, userName));
+        // not completed by the link reader, which must not run the connect of the user
+        return result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).handleAsync((claimed, error) -> {
+            pendingClaims.remove(id);
+            if (error == null) return claimed;
+            // the owner may still register the claim later
+            links[owner].send(userMessage(RELEASE, 0, userName));
+            throw new CompletionException(
+                new ChatProtocolException("Cluster node of user " + userName + " not available"));
+        });
+    }
+
+    /**
+     * Releases the user name of a user disconnecting from this node.
+     * @param userName  name of the user
+     */
+    public void release(String userName) {
+        if (!isEnabled()) return;
+        int owner = ring.nodeFor(userName);
+        if (owner == self) {
+            directory.remove(userName, self);
+        } else {
+            links[owner].send(userMessage(RELEASE, 0, userName));
+        }
+    }
+
+    /**
+     * Relays a message to all users to the other nodes, which deliver it to their local users.
+     * @param frame message to all users, its binary encoding is shared with the local recipients
+     */
+    public void broadcast(EncodedFrame frame) {
+        if (!isEnabled()) return;
+        byte[] message;
+        try {
+            message = frameMessage(BROADCAST, frame.getBytes(WireFormat.BINARY));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to encode broadcast: {0}", e.getMessage());
+            return;
+        }
+        // the same bytes are queued on all links
+        for (ClusterLink link : links) {
+            if (link != null) link.send(message);
+        }
+    }
+
+    /**
+     * Routes a private message to a user who is not connected to this node, through the node owning the receiver.
+     * @param frame private message
+     */
+    public void route(Frame frame) {
+        if (!isEnabled()) return;
+        int owner = ring.nodeFor(frame.getReceiver());
+        if (owner == self) {
+            routeOwned(frame, self);
+        } else {
+            links[owner].send(frameMessage(ROUTE, FrameCodec.encode(frame)));
+        }
+    }
+
+    /**
+     * Fetches the messages stored for a user who just connected to this node from the node owning the user. Called
+     * once the connect has been confirmed, the messages of a user owned by this node are delivered by the caller.
+     * @param userName  name of the user
+     */
+    public void fetchMailbox(String userName) {
+        if (!isEnabled() || !mailbox.isEnabled()) return;
+        int owner = ring.nodeFor(userName);
+        if (owner != self) {
+            links[owner].send(userMessage(FETCH, 0, userName));
+        }
+    }
+
+    /**
+     * Leaves the cluster: closes the cluster port and all links.
+     */
+    public void close() {
+        if (!isEnabled()) return;
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close cluster port: {0}", e.getMessage());
+        }
+        for (ClusterLink link : links) {
+            if (link != null) link.close();
+        }
+        for (Socket socket : inboundSockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * First message on a link, identifying this node.
+     */
+    byte[] helloMessage() {
+        return header(HELLO, 0).array();
+    }
+
+    /**
+     * Message with all local users owned by the given node, sent whenever the link to the node is (re)connected.
+     * @param owner number of the owning node
+     */
+    byte[] syncMessage(int owner) {
+        List<byte[]> names = new ArrayList<>();
+        int size = Integer.BYTES;
+        for (ServerConnectionHandler handler : registry.handlers()) {
+            String userName = handler.getUserName();
+            if (ring.nodeFor(userName) == owner) {
+                byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                size += Short.BYTES + name.length;
+            }
+        }
+        ByteBuffer buffer = header(SYNC, size).putInt(names.size());
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length).put(name);
+        }
+        return buffer.array();
+    }
+
+    private boolean claimOwned(String userName, int node) {
+        Integer current = directory.putIfAbsent(userName, node);
+        return current == null || current == node;
+    }
+
+    /**
+     * Forwards a private message to the node of its receiver, which is owned by this node, or stores it in the
+     * mailbox of the receiver if the receiver is not connected.
+     * @param frame     private message
+     * @param origin    node of the sender, which gets the error if the message can not be delivered or stored
+     */
+    private void routeOwned(Frame frame, int origin) {
+        Integer location = directory.get(frame.getReceiver());
+        if (location == null && mailbox.isEnabled()) {
+            mailbox.store(frame, error -> deliver(ServerConnectionHandler.errorFrame(frame.getSender(), error), origin));
+        } else if (location == null) {
+            deliver(ServerConnectionHandler.errorFrame(frame.getSender(), "Unknown User: " + frame.getReceiver()),
+                origin);
+        } else {
+            deliver(frame, location);
+        }
+    }
+
+    private void deliver(Frame frame, int node) {
+        if (node == self) {
+            ServerConnectionHandler handler = registry.get(frame.getReceiver());
+            if (handler != null) {
+                broadcastEngine.send(frame, handler);
+            }
+        } else {
+            links[node].send(frameMessage(DELIVER, FrameCodec.encode(frame)));
+        }
+    }
+
+    /**
+     * Sends the stored messages of a user owned by this node to the node the user has connected to.
+     */
+    private void deliverStored(List<EncodedFrame> frames, int node) {
+        for (EncodedFrame frame : frames) {
+            try {
+                links[node].send(frameMessage(DELIVER, frame.getBytes(WireFormat.BINARY)));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to encode stored message: {0}", e.getMessage());
+            }
+        }
+    }
+
+    private void acceptLinks() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                inboundSockets.add(socket);
+                Thread reader = new Thread(() -> readLink(socket), "cluster-inbound");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) logger.log(Level.WARNING, "Failed to accept cluster link: {0}", e.getMessage());
+            }
+        }
+    }
+
+    private void readLink(Socket socket) {
+        int origin = -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (!closed) {
+                int length = in.readInt();
+                if (length < 5 || length > MAX_MESSAGE_SIZE) {
+                    throw new IOException("Invalid cluster message length: " + length);
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                ByteBuffer buffer = ByteBuffer.wrap(message);
+                byte type = buffer.get();
+                int node = buffer.getInt();
+                if (node < 0 || node >= nodes.size() || node == self) {
+                    throw new IOException("Invalid cluster node: " + node);
+                }
+                if (type == HELLO && origin < 0) {
+                    if (!isAddressOf(node, socket.getInetAddress())) {
+                        throw new IOException("Link from " + socket.getInetAddress() + " is not from node " + node);
+                    }
+                    origin = node;
+                    inbound.set(origin, socket);
+                } else if (node != origin || type == HELLO) {
+                    throw new IOException("Unexpected cluster message " + type + " from node " + node);
+                } else {
+                    process(type, node, buffer);
+                }
+            }
+        } catch (EOFException e) {
+            if (!closed) logger.log(Level.INFO, "Cluster node {0} disconnected", origin);
+        } catch (IOException | BufferUnderflowException e) {
+            if (!closed) logger.log(Level.WARNING, "Cluster link from node {0} closed: {1}",
+                new Object[]{origin, e.getMessage()});
+        } finally {
+            inboundSockets.remove(socket);
+            closeQuietly(socket);
+            // the node is gone, unless it has already reconnected
+            if (origin >= 0 && inbound.compareAndSet(origin, socket, null)) {
+                removeUsersOf(origin);
+            }
+        }
+    }
+
+    private void process(byte type, int node, ByteBuffer buffer) throws IOException {
+        switch (type) {
+            case SYNC:
+                removeUsersOf(node);
+                for (int count = buffer.getInt(); count > 0; count--) {
+                    directory.put(readString(buffer), node);
+                }
+                break;
+            case CLAIM: {
+                long id = buffer.getLong();
+                boolean claimed = claimOwned(readString(buffer), node);
+                links[node].send(header(CLAIMED, Long.BYTES + 1).putLong(id).put((byte) (claimed ? 1 : 0)).array());
+                break;
+            }
+            case CLAIMED: {
+                CompletableFuture<Boolean> result = pendingClaims.get(buffer.getLong());
+                if (result != null) result.complete(buffer.get() != 0);
+                break;
+            }
+            case RELEASE:
+                buffer.getLong();
+                directory.remove(readString(buffer), node);
+                break;
+            case BROADCAST: {
+                EncodedFrame frame = new EncodedFrame(FrameCodec.decode(buffer));
+                broadcastEngine.broadcast(BroadcastEngine.ALL_USERS, frame, registry::handlers);
+                // every node keeps the complete history, users may connect to any node
+                history.append(frame);
+                break;
+            }
+            case ROUTE:
+                routeOwned(FrameCodec.decode(buffer), node);
+                break;
+            case DELIVER:
+                deliver(FrameCodec.decode(buffer), self);
+                break;
+            case FETCH: {
+                buffer.getLong();
+                String userName = readString(buffer);
+                // only the node the user is connected to gets the messages
+                Integer location = directory.get(userName);
+                if (location != null && location == node) {
+                    mailbox.deliver(userName, frames -> deliverStored(frames, node));
+                }
+                break;
+            }
+            default:
+                logger.log(Level.WARNING, "Unknown cluster message type {0} from node {1}", new Object[]{type, node});
+                break;
+        }
+    }
+
+    private void removeUsersOf(int node) {
+        directory.values().removeIf(location -> location == node);
+    }
+
+    private ByteBuffer header(byte type, int bodySize) {
+        // length, type and origin node
+        return ByteBuffer.allocate(Integer.BYTES + 1 + Integer.BYTES + bodySize)
+            .putInt(1 + Integer.BYTES + bodySize).put(type).putInt(self);
+    }
+
+    private byte[] frameMessage(byte type, byte[] frame) {
+        return header(type, frame.length).put(frame).array();
+    }
+
+    private byte[] userMessage(byte type, long id, String userName) {
+        byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+        return header(type, Long.BYTES + Short.BYTES + name.length)
+            .putLong(id).putShort((short) name.length).put(name).array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether a link comes from a configured node. The host of the node is resolved again, its address may
+     * have changed since the start.
+     */
+    private boolean isAddressOf(int node, InetAddress remote) {
+        String address = nodes.get(node);
+        try {
+            for (InetAddress candidate : InetAddress.getAllByName(address.substring(0, address.lastIndexOf(':')))) {
+                if (candidate.equals(remote)) return true;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to resolve cluster node {0}: {1}", new Object[]{address, e.getMessage()});
+        }
+        return false;
+    }
+
+    private static InetSocketAddress address(String node) throws IOException {
+        int separator = node.lastIndexOf(':');
+        try {
+            return new InetSocketAddress(node.substring(0, separator), Integer.parseInt(node.substring(separator + 1)));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Invalid cluster node address (host:port expected): " + node);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single client connection. Every update is also added to the totals of the {@link ServerMetrics}.
+ */
+class ConnectionMetrics implements ConnectionMetricsMBean {
+    private final ServerMetrics serverMetrics;
+    private final ServerConnectionHandler handler;
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder rateLimitedFrames = new LongAdder();
+
+    ConnectionMetrics(ServerMetrics serverMetrics, ServerConnectionHandler handler) {
+        this.serverMetrics = serverMetrics;
+        this.handler = handler;
+    }
+
+    /**
+     * Records a frame received from the client and the time it took to dispatch it.
+     * @param dispatchNanos dispatch time in nanoseconds
+     */
+    void messageReceived(long dispatchNanos) {
+        messagesIn.increment();
+        serverMetrics.messageReceived(dispatchNanos);
+    }
+
+    /**
+     * Records frames written to the client.
+     * @param count number of written frames
+     */
+    void messagesWritten(int count) {
+        messagesOut.add(count);
+        serverMetrics.messagesWritten(count);
+    }
+
+    /**
+     * Records a broadcast sent by the client.
+     * @param recipients    number of recipients
+     */
+    void broadcast(int recipients) {
+        serverMetrics.broadcast(recipients);
+    }
+
+    /**
+     * Records a frame of the client rejected by the rate limit.
+     */
+    void frameRateLimited() {
+        rateLimitedFrames.increment();
+        serverMetrics.frameRateLimited();
+    }
+
+    /**
+     * Records that the connection has been closed.
+     */
+    void connectionClosed() {
+        serverMetrics.connectionClosed(handler);
+    }
+
+    @Override
+    public String getUserName() {
+        return handler.getUserName();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return handler.getRemoteAddress();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return handler.getBytesReceived();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return handler.getBytesSent();
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return handler.getOutboundQueueDepth();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return handler.getDroppedFrames();
+    }
+
+    @Override
+    public long getRateLimitedFrames() {
+        return rateLimitedFrames.sum();
+    }
+}
@@ -0,0 +1,35 @@
+package ch.zhaw.pm2.multichat.server;
+
+/**
+ * JMX management interface of the {@link ConnectionMetrics} of a single client connection, registered as
+ * {@code ch.zhaw.pm2.multichat:type=Connection,port=<port>,id=<connection id>} while the connection is open.
+ */
+public interface ConnectionMetricsMBean {
+
+    /** Name of the user, or the generated name if the user has not registered yet. */
+    String getUserName();
+
+    /** Address and port of the client. */
+    String getRemoteAddress();
+
+    /** Number of frames received from the client. */
+    long getMessagesIn();
+
+    /** Number of frames written to the client. */
+    long getMessagesOut();
+
+    /** Number of bytes received from the client. */
+    long getBytesIn();
+
+    /** Number of bytes written to the client. */
+    long getBytesOut();
+
+    /** Number of frames waiting in the outbound queue. */
+    int getOutboundQueueDepth();
+
+    /** Number of frames dropped because the client did not read fast enough. */
+    long getDroppedFrames();
+
+    /** Number of frames of the client rejected because it exceeded its rate limit. */
+    long getRateLimitedFrames();
+}
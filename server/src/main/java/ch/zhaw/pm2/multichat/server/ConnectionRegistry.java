@@ -0,0 +1,197 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe registry of the connected users and their connection handlers.
+ * <p>The registry is accessed concurrently by all connection handlers. Lookups do not lock, user names are claimed
+ * atomically (only one connection can win a name) and entries are only removed by the connection which owns them.
+ * Iterating over {@link #handlers()} is weakly consistent: it never throws a
+ * {@link java.util.ConcurrentModificationException} while users connect and disconnect, and it returns each handler
+ * registered during the whole iteration exactly once.</p>
+ * <p>Connected users also get a compact numeric ID, which clients may use instead of the name to address them
+ * (see {@link ch.zhaw.pm2.multichat.protocol.Capabilities#USER_IDS}). The low bits of an ID are the index into an
+ * array of handlers, so a lookup by ID neither hashes nor allocates. The high bits count how often the index has been
+ * used, so an outdated ID of a disconnected user does not address the user who got the same index afterwards.</p>
+ * <p>The registry also keeps all open connections, including the ones which have not claimed a user name yet, e.g.
+ * to drain them on shutdown.</p>
+ */
+public class ConnectionRegistry {
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int MAX_GENERATION = (1 << (31 - INDEX_BITS)) - 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ConcurrentHashMap<String, ServerConnectionHandler> connections = new ConcurrentHashMap<>();
+    private final Set<ServerConnectionHandler> openConnections = ConcurrentHashMap.newKeySet();
+    // handlers by index of their ID, replaced by a larger copy when full; only written while holding idLock
+    private volatile AtomicReferenceArray<ServerConnectionHandler> handlersById =
+        new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private final Object idLock = new Object();
+    private int[] generations = new int[INITIAL_CAPACITY];
+    // released indexes, reused in the order they were released to delay the reuse as long as possible
+    private final Queue<Integer> freeIndexes = new ArrayDeque<>();
+    private int nextIndex = 0;
+
+    /**
+     * Returns the handler of a connected user.
+     * @param userName  name of the user
+     * @return handler of the user or null if the user is not connected
+     */
+    public ServerConnectionHandler get(String userName) {
+        return connections.get(userName);
+    }
+
+    /**
+     * Returns the handler of a connected user by its ID.
+     * @param userId    ID of the user, see {@link #assignId(ServerConnectionHandler)}
+     * @return handler of the user or null if no user with this ID is connected
+     */
+    public ServerConnectionHandler get(int userId) {
+        if (userId <= 0) return null;
+        AtomicReferenceArray<ServerConnectionHandler> table = handlersById;
+        int index = userId & INDEX_MASK;
+        if (index >= table.length()) return null;
+        ServerConnectionHandler handler = table.get(index);
+        return handler != null && handler.getUserId() == userId ? handler : null;
+    }
+
+    /**
+     * Indicates whether a user with the given name is connected.
+     * @param userName  name of the user
+     * @return true if the user is connected, false otherwise
+     */
+    public boolean contains(String userName) {
+        return connections.containsKey(userName);
+    }
+
+    /**
+     * Atomically registers the handler under the given user name, if the name is still free.
+     * @param userName  name of the user to claim
+     * @param handler   handler of the connection claiming the name
+     * @return true if the name was claimed, false if it is already taken
+     */
+    public boolean claim(String userName, ServerConnectionHandler handler) {
+        Objects.requireNonNull(handler, "Handler must not be null");
+        return connections.putIfAbsent(userName, handler) == null;
+    }
+
+    /**
+     * Removes the registration of the user, but only if it is owned by the given handler.
+     * This way a connection can never remove the registration of another connection using the same name.
+     * @param userName  name of the user
+     * @param handler   handler owning the registration
+     * @return true if the registration was removed, false otherwise
+     */
+    public boolean release(String userName, ServerConnectionHandler handler) {
+        return connections.remove(userName, handler);
+    }
+
+    /**
+     * Assigns a new ID to the handler of a user who claimed a name.
+     * @param handler   handler of the connection
+     * @return ID of the user, always positive
+     * @throws IllegalStateException if all IDs are in use
+     */
+    public int assignId(ServerConnectionHandler handler) {
+        Objects.requireNonNull(handler, "Handler must not be null");
+        synchronized (idLock) {
+            Integer free = freeIndexes.poll();
+            int index;
+            if (free != null) {
+                index = free;
+            } else if (nextIndex <= INDEX_MASK) {
+                index = nextIndex++;
+            } else {
+                throw new IllegalStateException("No user ID available");
+            }
+            AtomicReferenceArray<ServerConnectionHandler> table = handlersById;
+            if (index >= table.length()) {
+                table = grow(table);
+            }
+            int generation = generations[index] == MAX_GENERATION ? 1 : generations[index] + 1;
+            generations[index] = generation;
+            table.set(index, handler);
+            return (generation << INDEX_BITS) | index;
+        }
+    }
+
+    /**
+     * Removes the ID of a user, but only if it is owned by the given handler.
+     * @param userId    ID of the user
+     * @param handler   handler owning the ID
+     */
+    public void releaseId(int userId, ServerConnectionHandler handler) {
+        if (userId <= 0) return;
+        synchronized (idLock) {
+            int index = userId & INDEX_MASK;
+            AtomicReferenceArray<ServerConnectionHandler> table = handlersById;
+            if (index < table.length() && table.compareAndSet(index, handler, null)) {
+                freeIndexes.add(index);
+            }
+        }
+    }
+
+    private AtomicReferenceArray<ServerConnectionHandler> grow(AtomicReferenceArray<ServerConnectionHandler> table) {
+        int capacity = Math.min(table.length() * 2, INDEX_MASK + 1);
+        AtomicReferenceArray<ServerConnectionHandler> larger = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < table.length(); i++) {
+            larger.set(i, table.get(i));
+        }
+        int[] largerGenerations = new int[capacity];
+        System.arraycopy(generations, 0, largerGenerations, 0, generations.length);
+        generations = largerGenerations;
+        // lookups still using the old table only miss users registered from now on
+        handlersById = larger;
+        return larger;
+    }
+
+    /**
+     * Adds the handler of a new connection to the open connections.
+     * @param handler   handler of the new connection
+     */
+    public void connectionOpened(ServerConnectionHandler handler) {
+        openConnections.add(Objects.requireNonNull(handler, "Handler must not be null"));
+    }
+
+    /**
+     * Removes the handler of a closed connection from the open connections.
+     * @param handler   handler of the closed connection
+     * @return true if the connection was removed, false if it has already been removed before
+     */
+    public boolean connectionClosed(ServerConnectionHandler handler) {
+        return openConnections.remove(handler);
+    }
+
+    /**
+     * Returns a weakly consistent, unmodifiable view of all open connections, including the ones which have not
+     * completed the CONNECT handshake.
+     * @return view of the open connections
+     */
+    public Collection<ServerConnectionHandler> openConnections() {
+        return Collections.unmodifiableSet(openConnections);
+    }
+
+    /**
+     * Returns a weakly consistent, unmodifiable view of all registered handlers, e.g. to broadcast a message.
+     * @return view of all registered handlers
+     */
+    public Collection<ServerConnectionHandler> handlers() {
+        return Collections.unmodifiableCollection(connections.values());
+    }
+
+    /**
+     * Returns the number of registered users.
+     * @return number of registered users
+     */
+    public int size() {
+        return connections.size();
+    }
+}
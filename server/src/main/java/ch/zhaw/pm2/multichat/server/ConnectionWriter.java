@@ -0,0 +1,205 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous writer of a single connection.
+ * <p>Frames are queued by any thread and written by a thread of the shared writer pool. The writer is only
+ * scheduled on the pool while it has queued frames, and at most one pool thread writes for a connection at a time,
+ * so the frames are written in the order they were queued. The writes of blocking connections may block as long as
+ * the client does not read, so they are done by a {@link WriterThread} of the connection instead; the pool only
+ * runs their flush delays.</p>
+ * <p>Frames are written in batches: each run drains up to {@link ServerConfig#getMaxBatchSize()} frames and hands
+ * them to the connection at once, which writes them with a single flush (blocking transport) or gathering write
+ * (non-blocking transport). Afterwards the writer gives the pool thread back to be fair to the other connections and
+ * is scheduled again if frames are left. With a {@link ServerConfig#getFlushDelayMillis() flush delay}, an idle
+ * writer waits that long before its first run, so frames queued in the meantime are coalesced into the same
+ * batch. This trades latency for fewer system calls and TCP segments.</p>
+ * <p>The queue is bounded. If a client does not read fast enough, the queue fills up and the {@link OverflowPolicy}
+ * decides whether frames are dropped or the client is disconnected. Non-blocking connections which are not
+ * writable are not drained any further until they are writable again, so the queue depth reflects the backlog of
+ * the client for both transports.</p>
+ */
+class ConnectionWriter implements Runnable {
+    private static final Logger logger = Logger.getLogger(ConnectionWriter.class.getCanonicalName());
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final WriterThread writerThread;
+    private final ServerConnectionHandler handler;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<EncodedFrame> queue;
+    private final int maxBatchSize;
+    private final long flushDelayMillis;
+    // only accessed by the thread currently running the writer
+    private final List<EncodedFrame> batch;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private volatile Runnable closeAction;
+
+    /**
+     * Creates a writer.
+     * @param scheduler     shared writer pool
+     * @param writerThread  thread of the connection to write with, null to write with the writer pool
+     * @param handler       handler of the connection to write to
+     * @param config        server configuration: queue capacity, overflow policy, batch size and flush delay
+     */
+    ConnectionWriter(ScheduledExecutorService scheduler, WriterThread writerThread, ServerConnectionHandler handler,
+                     ServerConfig config) {
+        this.scheduler = scheduler;
+        this.writerThread = writerThread;
+        this.executor = writerThread != null ? writerThread : scheduler;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(config.getOutboundQueueCapacity());
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.flushDelayMillis = config.getFlushDelayMillis();
+        this.batch = new ArrayList<>(maxBatchSize);
+    }
+
+    /**
+     * Queues a frame to be written and returns immediately.
+     * @param frame encoded frame, shared with other connections
+     */
+    void enqueue(EncodedFrame frame) {
+        if (closeAction != null) {
+            return;
+        }
+        while (!queue.offer(frame)) {
+            if (!handleOverflow()) {
+                return;
+            }
+        }
+        scheduleDelayed();
+    }
+
+    /**
+     * Applies the overflow policy.
+     * @return true if the frame should be queued again, false if it has been dropped
+     */
+    private boolean handleOverflow() {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                if (queue.poll() != null) {
+                    droppedFrames.incrementAndGet();
+                }
+                return true;
+            case DISCONNECT:
+                if (closed.compareAndSet(false, true)) {
+                    closeAction = () -> {};
+                    logger.log(Level.WARNING, "Disconnecting slow consumer {0}: outbound queue full",
+                        handler.getUserName());
+                    droppedFrames.addAndGet(queue.size() + 1L);
+                    queue.clear();
+                    handler.stopReceiving();
+                    return false;
+                }
+                droppedFrames.incrementAndGet();
+                return false;
+            case DROP_NEWEST:
+            default:
+                droppedFrames.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * Runs the given action as soon as all frames queued so far have been written. Frames queued afterwards are
+     * discarded. Used to close the connection after a last response has been sent.
+     * @param action    action to run once the queue is flushed
+     */
+    void closeWhenFlushed(Runnable action) {
+        closeAction = action;
+        schedule();
+    }
+
+    /**
+     * Stops the writer thread of the connection, if any. Called when the connection has been closed.
+     */
+    void close() {
+        if (writerThread != null) {
+            writerThread.stop();
+        }
+    }
+
+    /**
+     * Returns the number of frames currently waiting to be written.
+     * @return current queue depth
+     */
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of frames dropped because the queue was full.
+     * @return number of dropped frames
+     */
+    long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            submit(0);
+        }
+    }
+
+    /**
+     * Schedules an idle writer after the flush delay, to coalesce the frames queued in the meantime.
+     */
+    private void scheduleDelayed() {
+        if (scheduled.compareAndSet(false, true)) {
+            submit(flushDelayMillis);
+        }
+    }
+
+    private void submit(long delayMillis) {
+        try {
+            if (delayMillis <= 0) {
+                executor.execute(this);
+            } else if (executor == scheduler) {
+                scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                // the pool only waits, the writer thread writes
+                scheduler.schedule(() -> submit(0), delayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.FINE, "Writer stopped, discarding {0} frames", queue.size());
+            queue.clear();
+            scheduled.set(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (handler.isWritable() && queue.drainTo(batch, maxBatchSize) > 0) {
+            handler.write(batch);
+            batch.clear();
+        }
+        Runnable action = closeAction;
+        if (action != null && queue.isEmpty() && closed.compareAndSet(false, true)) {
+            action.run();
+        }
+        scheduled.set(false);
+        if (!queue.isEmpty() && !handler.isWritable()) {
+            // continue as soon as the client has read enough of its data
+            handler.whenWritable(this::schedule);
+        } else if (!queue.isEmpty() || (action == null && closeAction != null)) {
+            schedule();
+        }
+    }
+}
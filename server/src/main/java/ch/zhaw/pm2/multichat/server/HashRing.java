@@ -0,0 +1,66 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Consistent hash ring mapping keys (user names) to the nodes of a cluster.
+ * <p>Every node is placed on the ring at a number of virtual points, a key belongs to the node of the first point
+ * at or after the hash of the key. All nodes build the same ring from the same node list, so they agree on the
+ * owner of every key without communicating. The ring is immutable and lookups do a binary search on a sorted array.</p>
+ */
+final class HashRing {
+    private static final int VIRTUAL_NODES = 128;
+
+    private final long[] points;
+    private final int[] nodes;
+
+    /**
+     * Creates the ring.
+     * @param nodeNames names of the nodes, the index in the list is the node number
+     */
+    HashRing(List<String> nodeNames) {
+        int size = nodeNames.size() * VIRTUAL_NODES;
+        long[][] entries = new long[size][];
+        for (int node = 0; node < nodeNames.size(); node++) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                entries[node * VIRTUAL_NODES + i] = new long[]{hash(nodeNames.get(node) + "#" + i), node};
+            }
+        }
+        Arrays.sort(entries, Comparator.comparingLong(entry -> entry[0]));
+        points = new long[size];
+        nodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = entries[i][0];
+            nodes[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * Returns the node owning the key.
+     * @param key   key, e.g. a user name
+     * @return number of the owning node
+     */
+    int nodeFor(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) index = -index - 1;
+        return nodes[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the UTF-8 bytes, with a final mix to spread similar keys over the whole ring.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,118 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects idle and dead client connections using application level heartbeats.
+ * <p>Every connection has one timeout on a shared {@link TimingWheel}. Receiving data only records the time of the
+ * last activity; the timeout checks it when it expires and is then scheduled again for the end of the idle interval.
+ * If a connection has been idle for the whole interval, it is sent a PING and must answer (with a PONG or any other
+ * data) within the heartbeat timeout, otherwise it is closed. So a half-open connection is evicted after at most
+ * interval plus timeout, without a timer per connection and without any work per received message.</p>
+ * <p>Only clients offering {@link ch.zhaw.pm2.multichat.protocol.Capabilities#HEARTBEAT} are pinged. Clients not
+ * offering it stay on the wheel and are closed once they have been idle for the legacy idle timeout (never if it is
+ * 0). Connections not completing the CONNECT handshake within interval plus timeout are closed. Heartbeats are
+ * disabled if the interval is 0.</p>
+ */
+public class HeartbeatMonitor {
+    private static final Logger logger = Logger.getLogger(HeartbeatMonitor.class.getCanonicalName());
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final TimingWheel wheel;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final long legacyIdleTimeoutMillis;
+    private final ServerMetrics metrics;
+
+    /**
+     * Creates the monitor configured by {@link ServerConfig#getHeartbeatIntervalMillis()}.
+     * @param config    server configuration: heartbeat interval and timeout, idle timeout of legacy clients
+     * @param metrics   metrics of the server, counting the evicted connections
+     * @return the monitor, disabled if the interval is 0
+     */
+    public static HeartbeatMonitor open(ServerConfig config, ServerMetrics metrics) {
+        return new HeartbeatMonitor(config.getHeartbeatIntervalMillis(), config.getHeartbeatTimeoutMillis(),
+            config.getLegacyIdleTimeoutMillis(), metrics);
+    }
+
+    private HeartbeatMonitor(long intervalMillis, long timeoutMillis, long legacyIdleTimeoutMillis,
+                             ServerMetrics metrics) {
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.legacyIdleTimeoutMillis = legacyIdleTimeoutMillis;
+        this.metrics = metrics;
+        this.wheel = intervalMillis > 0 ? new TimingWheel("heartbeat-wheel", TICK_MILLIS, WHEEL_SIZE) : null;
+    }
+
+    /**
+     * Indicates whether connections are monitored.
+     * @return true if the heartbeat interval is not 0
+     */
+    public boolean isEnabled() {
+        return wheel != null;
+    }
+
+    /**
+     * Starts monitoring a new connection. The monitoring ends when the connection is closed.
+     * @param handler   handler of the connection
+     */
+    public void register(ServerConnectionHandler handler) {
+        if (wheel == null) return;
+        wheel.schedule(() -> checkIdle(handler), intervalMillis + timeoutMillis);
+    }
+
+    /**
+     * Stops the monitoring of all connections.
+     */
+    public void close() {
+        if (wheel != null) wheel.close();
+    }
+
+    private void checkIdle(ServerConnectionHandler handler) {
+        if (!handler.isOpen()) return;
+        if (handler.isHandshakePending()) {
+            evict(handler, "handshake not completed");
+            return;
+        }
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - handler.getLastActivity());
+        if (!handler.isHeartbeatSupported()) {
+            checkLegacyIdle(handler, idleMillis);
+        } else if (idleMillis < intervalMillis) {
+            wheel.schedule(() -> checkIdle(handler), intervalMillis - idleMillis);
+        } else {
+            long pingedAt = System.nanoTime();
+            handler.ping();
+            wheel.schedule(() -> checkAnswer(handler, pingedAt), timeoutMillis);
+        }
+    }
+
+    /**
+     * Clients not supporting heartbeats can not be pinged, they are closed once idle for the legacy idle timeout.
+     */
+    private void checkLegacyIdle(ServerConnectionHandler handler, long idleMillis) {
+        if (legacyIdleTimeoutMillis == 0) return;
+        if (idleMillis >= legacyIdleTimeoutMillis) {
+            evict(handler, "idle without heartbeats");
+        } else {
+            wheel.schedule(() -> checkIdle(handler), legacyIdleTimeoutMillis - idleMillis);
+        }
+    }
+
+    private void checkAnswer(ServerConnectionHandler handler, long pingedAt) {
+        if (!handler.isOpen()) return;
+        if (handler.getLastActivity() - pingedAt < 0) {
+            evict(handler, "no heartbeat received");
+            return;
+        }
+        checkIdle(handler);
+    }
+
+    private void evict(ServerConnectionHandler handler, String reason) {
+        metrics.connectionEvicted();
+        logger.log(Level.INFO, "Closing connection of {0}: {1}", new Object[]{handler.getUserName(), reason});
+        handler.stopReceiving();
+    }
+}
@@ -0,0 +1,325 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.FrameCodec;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent, append-only log of the messages to all users, used to replay the latest messages to users who connect.
+ * <p>The messages are stored in segment files of a fixed size, as a sequence of frames in the binary wire format of
+ * {@link FrameCodec}. The segments are written and read through memory mapped buffers. Appending only queues the
+ * frame; a background thread copies its bytes into the active segment, so dispatching a message never waits for the
+ * disk. If the queue is full, the message is not stored. When the active segment is full, a new one is started and
+ * the oldest segments beyond the retention limit are deleted.</p>
+ * <p>Replay reads the mapped segments sequentially from the oldest requested message on. The writer publishes the
+ * end of the written data and the number of messages of a segment with a single volatile write after copying the
+ * bytes, so readers never see a partially written frame and do not need a lock.</p>
+ * <p>On startup, the existing segments of the directory are scanned and appending continues after the last valid
+ * frame. The history is disabled if no directory is configured.</p>
+ */
+public class MessageHistory {
+    private static final Logger logger = Logger.getLogger(MessageHistory.class.getCanonicalName());
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 256;
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int replayCount;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<EncodedFrame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the history configured by {@link ServerConfig#getHistoryDirectory()}.
+     * @param config    server configuration: directory, segment size, retention and number of replayed messages
+     * @return the history, disabled if no directory is configured
+     * @throws IOException if the directory or the segments can not be opened
+     */
+    public static MessageHistory open(ServerConfig config) throws IOException {
+        String directory = config.getHistoryDirectory();
+        if (directory == null || directory.isBlank()) {
+            return new MessageHistory(null, config);
+        }
+        return new MessageHistory(Paths.get(directory), config);
+    }
+
+    private MessageHistory(Path directory, ServerConfig config) throws IOException {
+        this.directory = directory;
+        this.segmentSize = config.getHistorySegmentSize();
+        this.maxSegments = config.getHistorySegments();
+        this.replayCount = config.getHistoryReplay();
+        if (directory == null) {
+            writer = null;
+            return;
+        }
+        Files.createDirectories(directory);
+        recover();
+        logger.log(Level.INFO, "Message history in {0} with {1} segments", new Object[]{directory, segments.size()});
+        writer = new Thread(this::writeMessages, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Indicates whether messages are stored.
+     * @return true if a history directory is configured
+     */
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * Queues a message to be stored. Returns immediately, the message is dropped if the queue is full.
+     * @param frame message to all users, its binary encoding is shared with the recipients
+     */
+    public void append(EncodedFrame frame) {
+        if (writer == null || closed) return;
+        if (!queue.offer(frame)) {
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the latest stored messages, at most {@link ServerConfig#getHistoryReplay()}.
+     * Messages still waiting in the queue are not included.
+     * @return messages in the order they have been stored, oldest first
+     */
+    public List<Frame> replay() {
+        if (writer == null || replayCount == 0) return Collections.emptyList();
+        // snapshot of the segments and their published state, so all values belong together
+        List<Segment> snapshot = new ArrayList<>(segments);
+        long[] states = new long[snapshot.size()];
+        int first = snapshot.size();
+        long available = 0;
+        while (first > 0 && available < replayCount) {
+            first--;
+            states[first] = snapshot.get(first).state;
+            available += Segment.count(states[first]);
+        }
+        long skip = Math.max(0, available - replayCount);
+        List<Frame> frames = new ArrayList<>((int) Math.min(available, replayCount));
+        for (int i = first; i < snapshot.size(); i++) {
+            ByteBuffer buffer = snapshot.get(i).buffer.duplicate();
+            buffer.limit(Segment.limit(states[i]));
+            try {
+                while (buffer.hasRemaining()) {
+                    if (skip > 0) {
+                        buffer.position(buffer.position() + FrameCodec.frameLength(buffer));
+                        skip--;
+                    } else {
+                        frames.add(FrameCodec.decode(buffer));
+                    }
+                }
+            } catch (StreamCorruptedException e) {
+                logger.log(Level.WARNING, "Corrupt message history segment {0}: {1}",
+                    new Object[]{snapshot.get(i).path, e.getMessage()});
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Stores the messages still in the queue (waiting at most one second) and forces the active segment to disk.
+     */
+    public void close() {
+        if (writer == null || closed) return;
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).buffer.force();
+        }
+    }
+
+    private void writeMessages() {
+        List<EncodedFrame> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            write(batch);
+        }
+        // store the remaining messages on close
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<EncodedFrame> batch) {
+        for (EncodedFrame frame : batch) {
+            try {
+                append(frame.getBytes(WireFormat.BINARY));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to store message in history: {0}", e.getMessage());
+            }
+        }
+        batch.clear();
+        long dropped = droppedMessages.getAndSet(0);
+        if (dropped > 0) {
+            logger.log(Level.WARNING, "History queue full, {0} messages not stored", dropped);
+        }
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        Segment active = segments.get(segments.size() - 1);
+        if (bytes.length > active.buffer.capacity() - Segment.limit(active.state)) {
+            if (bytes.length > segmentSize) {
+                throw new IOException("Message larger than a history segment: " + bytes.length);
+            }
+            active = roll(active);
+        }
+        long state = active.state;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(Segment.limit(state));
+        buffer.put(bytes);
+        // publish the frame: readers only read up to the limit of the state
+        active.state = Segment.state(Segment.count(state) + 1, buffer.position());
+    }
+
+    private Segment roll(Segment full) throws IOException {
+        full.buffer.force();
+        Segment next = Segment.create(directory.resolve(segmentName(full.id + 1)), full.id + 1, segmentSize);
+        segments.add(next);
+        removeExpiredSegments();
+        return next;
+    }
+
+    private void removeExpiredSegments() {
+        while (segments.size() > maxSegments) {
+            Segment expired = segments.remove(0);
+            try {
+                // readers still holding the mapping keep reading it, the mapping stays valid after the delete
+                Files.deleteIfExists(expired.path);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to delete history segment {0}: {1}",
+                    new Object[]{expired.path, e.getMessage()});
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                if (segmentId(path) > 0) paths.add(path);
+            }
+        }
+        // the zero padded ids sort like numbers
+        Collections.sort(paths);
+        for (Path path : paths) {
+            segments.add(Segment.recover(path, segmentId(path)));
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(directory.resolve(segmentName(1)), 1, segmentSize));
+        }
+        removeExpiredSegments();
+    }
+
+    private static String segmentName(long id) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Segment file of the history, mapped into memory.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long id;
+        private final MappedByteBuffer buffer;
+        // number of frames (high 32 bits) and end of the written frames (low 32 bits), written by the writer only
+        private volatile long state;
+
+        private Segment(Path path, long id, MappedByteBuffer buffer, long state) {
+            this.path = path;
+            this.id = id;
+            this.buffer = buffer;
+            this.state = state;
+        }
+
+        static Segment create(Path path, long id, int size) throws IOException {
+            return new Segment(path, id, map(path, size), 0);
+        }
+
+        static Segment recover(Path path, long id) throws IOException {
+            MappedByteBuffer buffer = map(path, (int) Files.size(path));
+            ByteBuffer scan = buffer.duplicate();
+            int count = 0;
+            int limit = 0;
+            try {
+                // the unused part of a segment is zero filled, which is not a valid frame header
+                while (scan.remaining() >= FrameCodec.HEADER_SIZE
+                    && Byte.toUnsignedInt(scan.get(scan.position())) == FrameCodec.MAGIC) {
+                    FrameCodec.decode(scan);
+                    count++;
+                    limit = scan.position();
+                }
+            } catch (StreamCorruptedException e) {
+                logger.log(Level.WARNING, "Truncating history segment {0} after {1} messages: {2}",
+                    new Object[]{path, count, e.getMessage()});
+            }
+            return new Segment(path, id, buffer, state(count, limit));
+        }
+
+        private static MappedByteBuffer map(Path path, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // the mapping stays valid after closing the channel
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        static long state(int count, int limit) {
+            return ((long) count << 32) | limit;
+        }
+
+        static int count(long state) {
+            return (int) (state >>> 32);
+        }
+
+        static int limit(long state) {
+            return (int) state;
+        }
+    }
+}
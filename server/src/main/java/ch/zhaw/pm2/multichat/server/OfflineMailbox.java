@@ -0,0 +1,360 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.FrameCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk-backed store of private messages to users who are not connected.
+ * <p>Each user has a mailbox file, containing the messages in the binary wire format of {@link FrameCodec}, each
+ * preceded by its expiry time. The messages are kept on disk only, the heap holds just the number of messages per
+ * mailbox, so many queued messages do not use memory. All file operations are done by a single background thread
+ * in the order they were requested: storing a message only queues the request, so dispatching is never blocked by
+ * the disk. The number of waiting requests is bounded, a message is rejected if the queue is full.</p>
+ * <p>Any user can send messages to made-up names, so besides the messages per mailbox, the number of mailboxes and
+ * their total size on disk are limited as well; messages beyond the limits are rejected. The heap holds an entry per
+ * existing mailbox only, it is removed with the mailbox when it is delivered or all its messages have expired.</p>
+ * <p>When the user connects, the mailbox is read in one pass, the messages which are not expired are sent in one
+ * batch and the file is deleted. Expired messages are also removed periodically. The mailbox is disabled if no
+ * directory is configured.</p>
+ */
+public class OfflineMailbox {
+    private static final Logger logger = Logger.getLogger(OfflineMailbox.class.getCanonicalName());
+    private static final String MAILBOX_SUFFIX = ".mbox";
+    private static final int MAX_PENDING = 8192;
+    private static final long MAX_PURGE_INTERVAL_SECONDS = 3600;
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final Path directory;
+    private final ConnectionRegistry registry;
+    private final long ttlMillis;
+    private final int maxMessages;
+    private final int maxMailboxes;
+    private final long maxBytes;
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger(0);
+    // number of messages per existing mailbox, and number and total size of the mailboxes, only accessed by the
+    // mailbox thread
+    private final Map<String, Integer> counts = new HashMap<>();
+    private int mailboxes = 0;
+    private long totalBytes = 0;
+
+    /**
+     * Opens the mailboxes configured by {@link ServerConfig#getMailboxDirectory()}.
+     * @param config    server configuration: directory, time to live, maximum number of messages per mailbox and
+     *                  maximum number and total size of the mailboxes
+     * @param registry  registry of the connected users, to deliver messages to users who connected in the meantime
+     * @return the mailboxes, disabled if no directory is configured
+     * @throws IOException if the directory can not be created
+     */
+    public static OfflineMailbox open(ServerConfig config, ConnectionRegistry registry) throws IOException {
+        String directory = config.getMailboxDirectory();
+        if (directory == null || directory.isBlank()) {
+            return new OfflineMailbox(null, registry, config);
+        }
+        return new OfflineMailbox(Paths.get(directory), registry, config);
+    }
+
+    private OfflineMailbox(Path directory, ConnectionRegistry registry, ServerConfig config) throws IOException {
+        this.directory = directory;
+        this.registry = registry;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(config.getMailboxTtlSeconds());
+        this.maxMessages = config.getMailboxMaxMessages();
+        this.maxMailboxes = config.getMailboxMaxUsers();
+        this.maxBytes = config.getMailboxMaxMegabytes() * 1024L * 1024L;
+        if (directory == null) {
+            executor = null;
+            return;
+        }
+        Files.createDirectories(directory);
+        // mailboxes kept from the last run count towards the limits
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + MAILBOX_SUFFIX)) {
+            for (Path path : stream) {
+                mailboxes++;
+                totalBytes += Files.size(path);
+            }
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "offline-mailbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long purgeInterval = Math.max(1, Math.min(config.getMailboxTtlSeconds(), MAX_PURGE_INTERVAL_SECONDS));
+        executor.scheduleWithFixedDelay(this::purgeExpired, purgeInterval, purgeInterval, TimeUnit.SECONDS);
+        logger.log(Level.INFO, "Offline mailboxes in {0}", directory);
+    }
+
+    /**
+     * Indicates whether messages to offline users are stored.
+     * @return true if a mailbox directory is configured
+     */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * Stores a private message for its receiver, who is not connected. If the receiver connects before the message
+     * is stored, it is delivered directly.
+     * @param frame     private message
+     * @param onError   called with an error text if the message can not be stored, possibly by another thread
+     */
+    public void store(Frame frame, Consumer<String> onError) {
+        if (!submit(() -> append(frame, onError))) {
+            onError.accept("Mailbox busy, message not stored for " + frame.getReceiver());
+        }
+    }
+
+    /**
+     * Sends the stored messages of a user who just connected, in one batch, and empties the mailbox.
+     * @param userName  name of the connected user
+     * @param handler   handler of the connection of the user
+     */
+    public void deliver(String userName, ServerConnectionHandler handler) {
+        deliver(userName, handler::sendFrames);
+    }
+
+    /**
+     * Hands the stored messages of a user to the given consumer, in one batch, and empties the mailbox. Used by the
+     * cluster node owning the user to forward them to the node the user has connected to.
+     * @param userName  name of the connected user
+     * @param consumer  called by the mailbox thread with the stored messages, unless there are none
+     */
+    public void deliver(String userName, Consumer<List<EncodedFrame>> consumer) {
+        if (executor == null) return;
+        // delivery must not be skipped, also if the queue is full
+        pending.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                pending.decrementAndGet();
+                deliverNow(userName, consumer);
+            });
+        } catch (RejectedExecutionException e) {
+            // server is shutting down, the messages stay in the mailbox
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Completes the requests still waiting (at most one second) and stops the mailbox thread.
+     */
+    public void close() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean submit(Runnable task) {
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                pending.decrementAndGet();
+                task.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            return false;
+        }
+    }
+
+    private void append(Frame frame, Consumer<String> onError) {
+        String receiver = frame.getReceiver();
+        ServerConnectionHandler online = registry.get(receiver);
+        if (online != null) {
+            // connected since the message was received
+            online.enqueue(new EncodedFrame(frame));
+            return;
+        }
+        Path path = mailboxPath(receiver);
+        try {
+            boolean created = !Files.exists(path);
+            int count = created ? 0 : count(receiver, path);
+            if (count >= maxMessages) {
+                onError.accept("Mailbox of " + receiver + " is full");
+                return;
+            }
+            if (created && mailboxes >= maxMailboxes) {
+                onError.accept("Too many mailboxes, message not stored for " + receiver);
+                return;
+            }
+            byte[] encoded = FrameCodec.encode(frame);
+            long size = Long.BYTES + encoded.length;
+            if (totalBytes + size > maxBytes) {
+                onError.accept("Mailbox storage full, message not stored for " + receiver);
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)))) {
+                out.writeLong(System.currentTimeMillis() + ttlMillis);
+                out.write(encoded);
+            }
+            if (created) mailboxes++;
+            totalBytes += size;
+            counts.put(receiver, count + 1);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to store message for {0}: {1}", new Object[]{receiver, e.getMessage()});
+            onError.accept("Failed to store message for " + receiver);
+        }
+    }
+
+    private void deliverNow(String userName, Consumer<List<EncodedFrame>> consumer) {
+        Path path = mailboxPath(userName);
+        if (!Files.exists(path)) return;
+        List<EncodedFrame> frames = new ArrayList<>();
+        try {
+            for (Frame frame : read(path, System.currentTimeMillis())) {
+                frames.add(new EncodedFrame(frame));
+            }
+            long size = Files.size(path);
+            Files.delete(path);
+            removed(userName, size);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to read mailbox of {0}: {1}", new Object[]{userName, e.getMessage()});
+        }
+        if (!frames.isEmpty()) {
+            logger.log(Level.FINE, "Delivering {0} stored messages to {1}", new Object[]{frames.size(), userName});
+            consumer.accept(frames);
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + MAILBOX_SUFFIX)) {
+            for (Path path : stream) {
+                purgeExpired(path, now);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to purge mailboxes: {0}", e.getMessage());
+        }
+    }
+
+    private void purgeExpired(Path path, long now) throws IOException {
+        // the messages are appended in order of their expiry, so the expired messages are at the beginning
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readLong() > now) return;
+        } catch (EOFException e) {
+            // empty or truncated mailbox, rewritten below
+        }
+        List<Frame> frames = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        readInto(path, now, frames, expiries);
+        String userName = userName(path);
+        long size = Files.size(path);
+        if (frames.isEmpty()) {
+            Files.delete(path);
+            removed(userName, size);
+            return;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            for (int i = 0; i < frames.size(); i++) {
+                out.writeLong(expiries.get(i));
+                out.write(FrameCodec.encode(frames.get(i)));
+            }
+        }
+        totalBytes += Files.size(temp) - size;
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (userName != null) counts.put(userName, frames.size());
+    }
+
+    private void removed(String userName, long size) {
+        if (userName != null) counts.remove(userName);
+        mailboxes--;
+        totalBytes -= size;
+    }
+
+    private int count(String userName, Path path) throws IOException {
+        Integer count = counts.get(userName);
+        if (count == null) {
+            // first access since the start of the server
+            count = read(path, Long.MIN_VALUE).size();
+            counts.put(userName, count);
+        }
+        return count;
+    }
+
+    private static List<Frame> read(Path path, long now) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        readInto(path, now, frames, new ArrayList<>());
+        return frames;
+    }
+
+    private static void readInto(Path path, long now, List<Frame> frames, List<Long> expiries) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                long expiresAt;
+                try {
+                    expiresAt = in.readLong();
+                } catch (EOFException e) {
+                    return;
+                }
+                Frame frame = readFrame(in, path);
+                if (frame == null) return;
+                if (expiresAt > now) {
+                    frames.add(frame);
+                    expiries.add(expiresAt);
+                }
+            }
+        }
+    }
+
+    private static Frame readFrame(DataInputStream in, Path path) {
+        try {
+            return FrameCodec.read(in);
+        } catch (IOException e) {
+            // incomplete last message, e.g. after a crash
+            logger.log(Level.WARNING, "Ignoring corrupt end of mailbox {0}: {1}", new Object[]{path, e.getMessage()});
+            return null;
+        }
+    }
+
+    private Path mailboxPath(String userName) {
+        // user names may contain any character, the encoding is a valid file name
+        String name = Base64.getUrlEncoder().withoutPadding().encodeToString(userName.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(name + MAILBOX_SUFFIX);
+    }
+
+    private static String userName(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(name.substring(0, name.length() - MAILBOX_SUFFIX.length()));
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ch.zhaw.pm2.multichat.server;
+
+/**
+ * Policy applied when the bounded outbound queue of a connection is full, i.e. the client does not read its data
+ * fast enough (slow consumer).
+ */
+public enum OverflowPolicy {
+    /** Drop the oldest queued frame to make room for the new one. */
+    DROP_OLDEST,
+    /** Drop the new frame and keep the queued ones. */
+    DROP_NEWEST,
+    /** Disconnect the slow consumer. */
+    DISCONNECT
+}
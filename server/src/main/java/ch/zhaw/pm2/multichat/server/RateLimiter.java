@@ -0,0 +1,94 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the rate of the requests of each connection and user with {@link TokenBucket}s.
+ * <p>Every connection has a bucket for all its frames, which is checked before a frame is dispatched. Every user
+ * has two more buckets, one for messages to all users and rooms, whose fan-out costs the server work for every
+ * recipient, and one for private messages. The user buckets are kept by name when the user disconnects, so
+ * reconnecting does not refill them. Buckets which have been refilled completely are removed once there are many,
+ * a new bucket behaves the same. After a sweep, the next one waits until the number of buckets has doubled, so
+ * the sweeps cost constant time per new user even if most buckets belong to connected users.</p>
+ * <p>Checking a bucket is lock-free and allocates nothing. Limits with a rate of 0 are disabled.</p>
+ */
+public class RateLimiter {
+    private static final int MAX_IDLE_USERS = 16384;
+
+    private final ServerConfig config;
+    private final ConnectionRegistry registry;
+    private final Map<String, UserLimits> users = new ConcurrentHashMap<>();
+    // number of buckets at which the idle ones are removed, Integer.MAX_VALUE while a sweep is running
+    private final AtomicInteger sweepThreshold = new AtomicInteger(MAX_IDLE_USERS);
+    private final boolean enabled;
+
+    /**
+     * Creates the rate limiter configured by {@link ServerConfig#getFrameRate()} and the other rate settings.
+     * @param config    server configuration: rates and bursts
+     * @param registry  registry of the connected users, whose buckets are kept
+     */
+    public RateLimiter(ServerConfig config, ConnectionRegistry registry) {
+        this.config = config;
+        this.registry = registry;
+        this.enabled = config.getFrameRate() > 0 || config.getBroadcastRate() > 0 || config.getPrivateRate() > 0;
+    }
+
+    /**
+     * Indicates whether any limit is configured.
+     * @return true if at least one rate is not 0
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the bucket limiting all frames of a new connection.
+     * @return full bucket
+     */
+    TokenBucket connectionBucket() {
+        return new TokenBucket(config.getFrameRate(), config.getFrameBurst());
+    }
+
+    /**
+     * Returns the buckets of a user, the ones of the last connection of the user if not refilled yet.
+     * @param userName  name of the user
+     * @return buckets of the user
+     */
+    UserLimits forUser(String userName) {
+        UserLimits limits = users.get(userName);
+        if (limits != null) return limits;
+        int threshold = sweepThreshold.get();
+        if (users.size() >= threshold && sweepThreshold.compareAndSet(threshold, Integer.MAX_VALUE)) {
+            removeIdle();
+            // the connected users are never removed, so wait until the remaining buckets have doubled
+            sweepThreshold.set(Math.max(MAX_IDLE_USERS, 2 * users.size()));
+        }
+        return users.computeIfAbsent(userName, name -> new UserLimits(
+            new TokenBucket(config.getBroadcastRate(), config.getBroadcastBurst()),
+            new TokenBucket(config.getPrivateRate(), config.getPrivateBurst())));
+    }
+
+    private void removeIdle() {
+        long now = System.nanoTime();
+        users.entrySet().removeIf(entry -> entry.getValue().isFull(now) && !registry.contains(entry.getKey()));
+    }
+
+    /**
+     * Buckets of a user.
+     */
+    static final class UserLimits {
+        final TokenBucket broadcast;
+        final TokenBucket privateMessages;
+
+        private UserLimits(TokenBucket broadcast, TokenBucket privateMessages) {
+            this.broadcast = broadcast;
+            this.privateMessages = privateMessages;
+        }
+
+        private boolean isFull(long now) {
+            return broadcast.isFull(now) && privateMessages.isFull(now);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Thread-safe index of the chat rooms and their members.
+ * <p>The member sets are read-optimized: a message to a room iterates over an immutable snapshot of its members
+ * without locking ({@link CopyOnWriteArraySet}), while joining and leaving copy the set. Messages are far more
+ * frequent than membership changes, and a message only touches the members of its room, so the cost of a room
+ * message scales with the size of the room and not with the number of connected users. Rooms are created by the
+ * first join and removed when the last member leaves.</p>
+ */
+public class RoomIndex {
+    private final ConcurrentHashMap<String, Set<ServerConnectionHandler>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the handler to the members of the room, creating the room if needed.
+     * @param room      name of the room
+     * @param handler   handler of the joining connection
+     * @return true if the handler has joined, false if it already is a member
+     */
+    public boolean join(String room, ServerConnectionHandler handler) {
+        boolean[] added = new boolean[1];
+        // atomic per room, so a concurrent leave can not remove the room while joining it
+        rooms.compute(room, (name, members) -> {
+            Set<ServerConnectionHandler> set = members == null ? new CopyOnWriteArraySet<>() : members;
+            added[0] = set.add(handler);
+            return set;
+        });
+        return added[0];
+    }
+
+    /**
+     * Removes the handler from the members of the room, the room is removed if it has no members left.
+     * @param room      name of the room
+     * @param handler   handler of the leaving connection
+     * @return true if the handler has left, false if it was not a member
+     */
+    public boolean leave(String room, ServerConnectionHandler handler) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(room, (name, members) -> {
+            removed[0] = members.remove(handler);
+            return members.isEmpty() ? null : members;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Returns the members of a room. Iterating over the members never blocks and sees a snapshot.
+     * @param room  name of the room
+     * @return unmodifiable view of the members, empty if the room does not exist
+     */
+    public Set<ServerConnectionHandler> members(String room) {
+        Set<ServerConnectionHandler> members = rooms.get(room);
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * Indicates whether the handler is a member of the room.
+     * @param room      name of the room
+     * @param handler   handler of the connection
+     * @return true if the handler is a member
+     */
+    public boolean isMember(String room, ServerConnectionHandler handler) {
+        Set<ServerConnectionHandler> members = rooms.get(room);
+        return members != null && members.contains(handler);
+    }
+
+    /**
+     * Returns the number of rooms with at least one member.
+     * @return number of rooms
+     */
+    public int size() {
+        return rooms.size();
+    }
+}
@@ -4,8 +4,11 @@ import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.SocketException;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -17,12 +20,16 @@ import java.util.logging.Logger;
  */
 public class Server {
     private static final Logger logger = Logger.getLogger(Server.class.getCanonicalName());
+    private static final long DRAIN_POLL_MILLIS = 10;
 
     // Server connection
-    private NetworkHandler.NetworkServer<String> networkServer;
+    private NetworkHandler.NetworkServer<Serializable> networkServer;
 
-    // Connection registry
-    private HashMap<String,ServerConnectionHandler> connections = new HashMap<>();
+    // Tuning options
+    private final ServerConfig config;
+
+    // Shared state of the connection handlers: registry, rooms, fan-out and metrics
+    private final ServerContext context;
 
     public static void main(String[] args) {
         // Initialize LogManager: must only be done once at application startup
@@ -47,21 +54,15 @@ public class Server {
                     return;
             }
             // Initialize server
-            final Server server = new Server(port);
+            final Server server = new Server(port, ServerConfig.fromSystemProperties());
 
             // This adds a shutdown hook running a cleanup task if the JVM is terminated (kill -HUP, Ctrl-C,...)
             Runtime.getRuntime().addShutdownHook(new Thread() {
                 @Override
                 public void run() {
-                    try {
-                        Thread.sleep(200);
-                        logger.info("Shutdown initiated...");
-                        server.terminate();
-                    } catch (InterruptedException e) {
-                        logger.log(Level.WARNING, "Shutdown interrupted.", e);
-                    } finally {
-                        logger.info("Shutdown complete.");
-                    }
+                    logger.info("Shutdown initiated...");
+                    server.drain();
+                    logger.info("Shutdown complete.");
                 }
             });
 
@@ -78,29 +79,81 @@ public class Server {
      * @throws IOException if the port is already in use
      */
     public Server(int serverPort) throws IOException {
+        this(serverPort, new ServerConfig());
+    }
+
+    /**
+     * Constructor of server.
+     * @param  serverPort where to listen
+     * @param  config tuning options of the server (e.g. the network transport)
+     * @throws IOException if the port is already in use
+     */
+    public Server(int serverPort, ServerConfig config) throws IOException {
         logger.setLevel(Level.ALL);
         // Open server connection
         logger.info("Create server connection");
-        networkServer = NetworkHandler.createServer(serverPort);
-        logger.info("Listening on " + networkServer.getHostAddress() + ":" + networkServer.getHostPort());
+        this.config = config;
+        this.context = new ServerContext(config);
+        int listeners = 1;
+        if (config.isReusePort() && config.getAcceptorThreads() > 1) {
+            if (NetworkHandler.isReusePortSupported()) {
+                // one server socket per acceptor, the operating system distributes the connection requests
+                listeners = config.getAcceptorThreads();
+            } else {
+                logger.warning("SO_REUSEPORT not supported, all acceptors share one server socket");
+            }
+        }
+        switch (config.getTransport()) {
+            case NIO:
+                logger.log(Level.INFO, "Using non-blocking transport with {0} event loops", config.getEventLoops());
+                networkServer = NetworkHandler.createNioServer(serverPort, config.getEventLoops(),
+                    config.getAcceptBacklog(), listeners);
+                break;
+            case BLOCKING:
+            default:
+                networkServer = NetworkHandler.createServer(serverPort, config.getAcceptBacklog(), listeners);
+                break;
+        }
+        logger.log(Level.INFO, "Listening on {0}:{1,number,#}",
+            new Object[]{networkServer.getHostAddress(), networkServer.getHostPort()});
+        context.getMetrics().register(networkServer.getHostPort());
     }
 
     /**
      * This method creates a new server and listens to incoming new network connections and connects them.
-     * @throws SocketException if the server connection has been terminated
-     * @throws IOException if there is a communication error
+     * With several acceptor threads, the additional acceptors run in their own threads, each on its own server
+     * socket if SO_REUSEPORT is used, otherwise all on the same one.
      */
     private void start() {
         logger.info("Server started.");
+        int acceptors = config.getAcceptorThreads();
+        for (int i = 1; i < acceptors; i++) {
+            int listener = i % networkServer.getListeners();
+            Thread acceptor = new Thread(() -> acceptConnections(listener), "acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        acceptConnections(0);
+        // close server
+        logger.info("Server Stopped.");
+    }
+
+    /**
+     * Accepts new network connections and connects them, until the server connection is closed.
+     * @param listener  index of the server socket to accept the connections from
+     */
+    private void acceptConnections(int listener) {
         try {
             while (true) {
-                 NetworkHandler.NetworkConnection<String> connection = networkServer.waitForConnection();
-                 ServerConnectionHandler connectionHandler = new ServerConnectionHandler(connection, connections);
-                 logger.info(String.format("Connected new Client %s with IP:Port <%s:%d>",
+                 NetworkHandler.NetworkConnection<Serializable> connection = networkServer.waitForConnection(listener);
+                 configureConnection(connection);
+                 ServerConnectionHandler connectionHandler = new ServerConnectionHandler(connection, context);
+                 // formatted lazily by the log handler, not on the accept path
+                 logger.log(Level.INFO, "Connected new Client {0} with IP:Port <{1}:{2,number,#}>", new Object[]{
                      connectionHandler.getUserName(),
                      connection.getRemoteHost(),
                      connection.getRemotePort()
-                 ));
+                 });
             }
         } catch(SocketException e) {
             logger.log(Level.FINE, "Server connection terminated");
@@ -108,8 +161,14 @@ public class Server {
         catch (IOException e) {
             logger.log(Level.SEVERE, "Communication error", e);
         }
-        // close server
-        logger.info("Server Stopped.");
+    }
+
+    private void configureConnection(NetworkHandler.NetworkConnection<Serializable> connection) {
+        try {
+            connection.setTcpNoDelay(config.isTcpNoDelay());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not set TCP_NODELAY: {0}", e.getMessage());
+        }
     }
 
     /**
@@ -117,6 +176,48 @@ public class Server {
      * @throws IOException  if there is a communication error
      */
     public void terminate() {
+        closeServerPort();
+        context.shutdown();
+    }
+
+    /**
+     * Shuts the server down gracefully. New connections are no longer accepted, every client is sent a DISCONNECT
+     * suggesting to reconnect after a random delay (so the clients of a restarted server do not all reconnect at
+     * the same time), and the connections are closed once their queued frames have been written. Connections still
+     * open after {@link ServerConfig#getDrainTimeoutMillis()} are closed without waiting any longer.
+     */
+    public void drain() {
+        try {
+            logger.info("Stop accepting connections.");
+            networkServer.stopAccepting();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to close server port", e);
+        }
+        Collection<ServerConnectionHandler> connections = context.getRegistry().openConnections();
+        logger.log(Level.INFO, "Draining {0} connections", connections.size());
+        long delay = config.getReconnectDelayMillis();
+        long jitter = config.getReconnectJitterMillis();
+        for (ServerConnectionHandler handler : connections) {
+            handler.drain(delay + ThreadLocalRandom.current().nextLong(jitter + 1));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getDrainTimeoutMillis());
+        try {
+            while (!connections.isEmpty() && System.nanoTime() - deadline < 0) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!connections.isEmpty()) {
+            logger.log(Level.WARNING, "Closing {0} connections not drained in time", connections.size());
+            for (ServerConnectionHandler handler : connections) {
+                handler.stopReceiving();
+            }
+        }
+        terminate();
+    }
+
+    private void closeServerPort() {
         try {
             logger.info("Close server port.");
             networkServer.close();
@@ -0,0 +1,533 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tuning options of the server.
+ * The values are read from system properties (e.g. {@code -Dmultichat.server.transport=nio}), missing or invalid
+ * values fall back to the defaults.
+ */
+public class ServerConfig {
+    private static final Logger logger = Logger.getLogger(ServerConfig.class.getCanonicalName());
+    private static final String PREFIX = "multichat.server.";
+
+    private Transport transport = Transport.BLOCKING;
+    private int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private Threads threads = Threads.PLATFORM;
+    private int acceptBacklog = 1024;
+    private int acceptorThreads = 1;
+    private boolean reusePort = false;
+    private int writerThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private int maxBatchSize = 64;
+    private int flushDelayMillis = 0;
+    private boolean tcpNoDelay = true;
+    private boolean connectionMBeans = false;
+    private boolean compression = true;
+    private String historyDirectory = "";
+    private int historySegmentSize = 4 * 1024 * 1024;
+    private int historySegments = 16;
+    private int historyReplay = 50;
+    private String mailboxDirectory = "";
+    private int mailboxTtlSeconds = 24 * 60 * 60;
+    private int mailboxMaxMessages = 500;
+    private int mailboxMaxUsers = 10000;
+    private int mailboxMaxMegabytes = 256;
+    private List<String> clusterNodes = Collections.emptyList();
+    private String clusterSelf = "";
+    private int clusterTimeoutMillis = 2000;
+    private int heartbeatIntervalMillis = 30000;
+    private int heartbeatTimeoutMillis = 10000;
+    private int legacyIdleTimeoutMillis = 1800000;
+    private int drainTimeoutMillis = 5000;
+    private int reconnectDelayMillis = 1000;
+    private int reconnectJitterMillis = 10000;
+    private int frameRate = 0;
+    private int frameBurst = 100;
+    private int broadcastRate = 0;
+    private int broadcastBurst = 20;
+    private int privateRate = 0;
+    private int privateBurst = 50;
+    private int broadcastTickMillis = 0;
+
+    /**
+     * Network transport used to serve the client connections.
+     */
+    public enum Transport {
+        /** One blocking thread per connection. */
+        BLOCKING,
+        /** Non-blocking connections served by a fixed number of selector event loops. */
+        NIO
+    }
+
+    /**
+     * Kind of threads running the receive loops of blocking connections.
+     */
+    public enum Threads {
+        /** One platform thread per connection. */
+        PLATFORM,
+        /** One virtual thread per connection, requires Java 21 or newer. */
+        VIRTUAL
+    }
+
+    /**
+     * Creates a configuration using the default values.
+     */
+    public ServerConfig() {
+    }
+
+    /**
+     * Creates a configuration from the system properties.
+     * @return configuration with the values of the system properties or the defaults
+     */
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.transport = enumProperty("transport", Transport.class, config.transport);
+        config.eventLoops = intProperty("eventLoops", config.eventLoops, 1);
+        config.threads = enumProperty("threads", Threads.class, config.threads);
+        config.acceptBacklog = intProperty("acceptBacklog", config.acceptBacklog, 1);
+        config.acceptorThreads = intProperty("acceptorThreads", config.acceptorThreads, 1);
+        config.reusePort = booleanProperty("reusePort", config.reusePort);
+        config.writerThreads = intProperty("writerThreads", config.writerThreads, 1);
+        config.outboundQueueCapacity = intProperty("outboundQueueCapacity", config.outboundQueueCapacity, 1);
+        config.overflowPolicy = enumProperty("overflowPolicy", OverflowPolicy.class, config.overflowPolicy);
+        config.maxBatchSize = intProperty("maxBatchSize", config.maxBatchSize, 1);
+        config.flushDelayMillis = intProperty("flushDelayMillis", config.flushDelayMillis, 0);
+        config.tcpNoDelay = booleanProperty("tcpNoDelay", config.tcpNoDelay);
+        config.connectionMBeans = booleanProperty("connectionMBeans", config.connectionMBeans);
+        config.compression = booleanProperty("compression", config.compression);
+        config.historyDirectory = stringProperty("historyDirectory", config.historyDirectory);
+        config.historySegmentSize = intProperty("historySegmentSize", config.historySegmentSize, 64 * 1024);
+        config.historySegments = intProperty("historySegments", config.historySegments, 1);
+        config.historyReplay = intProperty("historyReplay", config.historyReplay, 0);
+        config.mailboxDirectory = stringProperty("mailboxDirectory", config.mailboxDirectory);
+        config.mailboxTtlSeconds = intProperty("mailboxTtlSeconds", config.mailboxTtlSeconds, 1);
+        config.mailboxMaxMessages = intProperty("mailboxMaxMessages", config.mailboxMaxMessages, 1);
+        config.mailboxMaxUsers = intProperty("mailboxMaxUsers", config.mailboxMaxUsers, 1);
+        config.mailboxMaxMegabytes = intProperty("mailboxMaxMegabytes", config.mailboxMaxMegabytes, 1);
+        config.clusterNodes = listProperty("clusterNodes", config.clusterNodes);
+        config.clusterSelf = stringProperty("clusterSelf", config.clusterSelf);
+        config.clusterTimeoutMillis = intProperty("clusterTimeoutMillis", config.clusterTimeoutMillis, 1);
+        config.heartbeatIntervalMillis = intProperty("heartbeatIntervalMillis", config.heartbeatIntervalMillis, 0);
+        config.heartbeatTimeoutMillis = intProperty("heartbeatTimeoutMillis", config.heartbeatTimeoutMillis, 1);
+        config.legacyIdleTimeoutMillis = intProperty("legacyIdleTimeoutMillis", config.legacyIdleTimeoutMillis, 0);
+        config.drainTimeoutMillis = intProperty("drainTimeoutMillis", config.drainTimeoutMillis, 0);
+        config.reconnectDelayMillis = intProperty("reconnectDelayMillis", config.reconnectDelayMillis, 0);
+        config.reconnectJitterMillis = intProperty("reconnectJitterMillis", config.reconnectJitterMillis, 0);
+        config.frameRate = intProperty("frameRate", config.frameRate, 0);
+        config.frameBurst = intProperty("frameBurst", config.frameBurst, 1);
+        config.broadcastRate = intProperty("broadcastRate", config.broadcastRate, 0);
+        config.broadcastBurst = intProperty("broadcastBurst", config.broadcastBurst, 1);
+        config.privateRate = intProperty("privateRate", config.privateRate, 0);
+        config.privateBurst = intProperty("privateBurst", config.privateBurst, 1);
+        config.broadcastTickMillis = intProperty("broadcastTickMillis", config.broadcastTickMillis, 0);
+        return config;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public ServerConfig setTransport(Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public ServerConfig setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    public Threads getThreads() {
+        return threads;
+    }
+
+    public ServerConfig setThreads(Threads threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public ServerConfig setAcceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = acceptBacklog;
+        return this;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public ServerConfig setAcceptorThreads(int acceptorThreads) {
+        this.acceptorThreads = acceptorThreads;
+        return this;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public ServerConfig setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public ServerConfig setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+        return this;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public ServerConfig setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public ServerConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public ServerConfig setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public int getFlushDelayMillis() {
+        return flushDelayMillis;
+    }
+
+    public ServerConfig setFlushDelayMillis(int flushDelayMillis) {
+        this.flushDelayMillis = flushDelayMillis;
+        return this;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public boolean isConnectionMBeans() {
+        return connectionMBeans;
+    }
+
+    public ServerConfig setConnectionMBeans(boolean connectionMBeans) {
+        this.connectionMBeans = connectionMBeans;
+        return this;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public ServerConfig setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public String getHistoryDirectory() {
+        return historyDirectory;
+    }
+
+    public ServerConfig setHistoryDirectory(String historyDirectory) {
+        this.historyDirectory = historyDirectory;
+        return this;
+    }
+
+    public int getHistorySegmentSize() {
+        return historySegmentSize;
+    }
+
+    public ServerConfig setHistorySegmentSize(int historySegmentSize) {
+        this.historySegmentSize = historySegmentSize;
+        return this;
+    }
+
+    public int getHistorySegments() {
+        return historySegments;
+    }
+
+    public ServerConfig setHistorySegments(int historySegments) {
+        this.historySegments = historySegments;
+        return this;
+    }
+
+    public int getHistoryReplay() {
+        return historyReplay;
+    }
+
+    public ServerConfig setHistoryReplay(int historyReplay) {
+        this.historyReplay = historyReplay;
+        return this;
+    }
+
+    public String getMailboxDirectory() {
+        return mailboxDirectory;
+    }
+
+    public ServerConfig setMailboxDirectory(String mailboxDirectory) {
+        this.mailboxDirectory = mailboxDirectory;
+        return this;
+    }
+
+    public int getMailboxTtlSeconds() {
+        return mailboxTtlSeconds;
+    }
+
+    public ServerConfig setMailboxTtlSeconds(int mailboxTtlSeconds) {
+        this.mailboxTtlSeconds = mailboxTtlSeconds;
+        return this;
+    }
+
+    public int getMailboxMaxMessages() {
+        return mailboxMaxMessages;
+    }
+
+    public ServerConfig setMailboxMaxMessages(int mailboxMaxMessages) {
+        this.mailboxMaxMessages = mailboxMaxMessages;
+        return this;
+    }
+
+    public int getMailboxMaxUsers() {
+        return mailboxMaxUsers;
+    }
+
+    public ServerConfig setMailboxMaxUsers(int mailboxMaxUsers) {
+        this.mailboxMaxUsers = mailboxMaxUsers;
+        return this;
+    }
+
+    public int getMailboxMaxMegabytes() {
+        return mailboxMaxMegabytes;
+    }
+
+    public ServerConfig setMailboxMaxMegabytes(int mailboxMaxMegabytes) {
+        this.mailboxMaxMegabytes = mailboxMaxMegabytes;
+        return this;
+    }
+
+    public List<String> getClusterNodes() {
+        return clusterNodes;
+    }
+
+    public ServerConfig setClusterNodes(List<String> clusterNodes) {
+        this.clusterNodes = List.copyOf(clusterNodes);
+        return this;
+    }
+
+    public String getClusterSelf() {
+        return clusterSelf;
+    }
+
+    public ServerConfig setClusterSelf(String clusterSelf) {
+        this.clusterSelf = clusterSelf;
+        return this;
+    }
+
+    public int getClusterTimeoutMillis() {
+        return clusterTimeoutMillis;
+    }
+
+    public ServerConfig setClusterTimeoutMillis(int clusterTimeoutMillis) {
+        this.clusterTimeoutMillis = clusterTimeoutMillis;
+        return this;
+    }
+
+    public int getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    public ServerConfig setHeartbeatIntervalMillis(int heartbeatIntervalMillis) {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        return this;
+    }
+
+    public int getHeartbeatTimeoutMillis() {
+        return heartbeatTimeoutMillis;
+    }
+
+    public ServerConfig setHeartbeatTimeoutMillis(int heartbeatTimeoutMillis) {
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        return this;
+    }
+
+    public int getLegacyIdleTimeoutMillis() {
+        return legacyIdleTimeoutMillis;
+    }
+
+    public ServerConfig setLegacyIdleTimeoutMillis(int legacyIdleTimeoutMillis) {
+        this.legacyIdleTimeoutMillis = legacyIdleTimeoutMillis;
+        return this;
+    }
+
+    public int getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public ServerConfig setDrainTimeoutMillis(int drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        return this;
+    }
+
+    public int getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
+    public ServerConfig setReconnectDelayMillis(int reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        return this;
+    }
+
+    public int getReconnectJitterMillis() {
+        return reconnectJitterMillis;
+    }
+
+    public ServerConfig setReconnectJitterMillis(int reconnectJitterMillis) {
+        this.reconnectJitterMillis = reconnectJitterMillis;
+        return this;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public ServerConfig setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+        return this;
+    }
+
+    public int getFrameBurst() {
+        return frameBurst;
+    }
+
+    public ServerConfig setFrameBurst(int frameBurst) {
+        this.frameBurst = frameBurst;
+        return this;
+    }
+
+    public int getBroadcastRate() {
+        return broadcastRate;
+    }
+
+    public ServerConfig setBroadcastRate(int broadcastRate) {
+        this.broadcastRate = broadcastRate;
+        return this;
+    }
+
+    public int getBroadcastBurst() {
+        return broadcastBurst;
+    }
+
+    public ServerConfig setBroadcastBurst(int broadcastBurst) {
+        this.broadcastBurst = broadcastBurst;
+        return this;
+    }
+
+    public int getPrivateRate() {
+        return privateRate;
+    }
+
+    public ServerConfig setPrivateRate(int privateRate) {
+        this.privateRate = privateRate;
+        return this;
+    }
+
+    public int getPrivateBurst() {
+        return privateBurst;
+    }
+
+    public ServerConfig setPrivateBurst(int privateBurst) {
+        this.privateBurst = privateBurst;
+        return this;
+    }
+
+    public int getBroadcastTickMillis() {
+        return broadcastTickMillis;
+    }
+
+    public ServerConfig setBroadcastTickMillis(int broadcastTickMillis) {
+        this.broadcastTickMillis = broadcastTickMillis;
+        return this;
+    }
+
+    static List<String> listProperty(String name, List<String> defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null) return defaultValue;
+        List<String> values = new ArrayList<>();
+        for (String element : value.split(",")) {
+            if (!element.isBlank()) values.add(element.strip());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    static String stringProperty(String name, String defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : value.strip();
+    }
+
+    static int intProperty(String name, int defaultValue, int minValue) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null) return defaultValue;
+        try {
+            return Math.max(minValue, Integer.parseInt(value.strip()));
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid value for {0}: {1}", new Object[]{PREFIX + name, value});
+            return defaultValue;
+        }
+    }
+
+    static boolean booleanProperty(String name, boolean defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null) return defaultValue;
+        switch (value.strip().toLowerCase()) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                logger.log(Level.WARNING, "Invalid value for {0}: {1}", new Object[]{PREFIX + name, value});
+                return defaultValue;
+        }
+    }
+
+    static <E extends Enum<E>> E enumProperty(String name, Class<E> type, E defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null) return defaultValue;
+        try {
+            return Enum.valueOf(type, value.strip().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Invalid value for {0}: {1}", new Object[]{PREFIX + name, value});
+            return defaultValue;
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package ch.zhaw.pm2.multichat.server;
 
+import ch.zhaw.pm2.multichat.protocol.Capabilities;
 import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
 import ch.zhaw.pm2.multichat.protocol.ConnectionHandler;
+import ch.zhaw.pm2.multichat.protocol.EncodedFrame;
+import ch.zhaw.pm2.multichat.protocol.Frame;
 import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
-import java.util.HashMap;
+import ch.zhaw.pm2.multichat.protocol.ReconnectHint;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import static ch.zhaw.pm2.multichat.server.ServerConnectionHandler.State.*;
 
@@ -15,35 +27,204 @@ import static ch.zhaw.pm2.multichat.server.ServerConnectionHandler.State.*;
 public class ServerConnectionHandler extends ConnectionHandler {
     private static final AtomicInteger connectionCounter = new AtomicInteger(0);
     private final int connectionId = connectionCounter.incrementAndGet();
-    private final HashMap<String,ServerConnectionHandler> connectionRegistry;
+    private final ConnectionRegistry connectionRegistry;
+    private final RoomIndex roomIndex;
+    private final BroadcastEngine broadcastEngine;
+    private final MessageHistory history;
+    private final OfflineMailbox mailbox;
+    private final ClusterNode cluster;
+    private final ConnectionWriter writer;
+    private final ConnectionMetrics metrics;
+    private final boolean compression;
+    private final TokenBucket frameLimit;
+    private final RateLimiter rateLimiter;
+    // buckets of the user for messages, set on connect
+    private volatile RateLimiter.UserLimits userLimits;
+    // bucket whose limit has been reported to the client, only accessed while dispatching
+    private TokenBucket throttledBucket;
+    // time data was last received, checked by the heartbeat monitor
+    private volatile long lastActivity = System.nanoTime();
+    private volatile boolean heartbeat = false;
+
+    // rooms joined by this connection, to leave them on disconnect
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
 
     private String userName = "Anonymous-"+connectionId;
-    private State state = NEW;
+    private volatile int userId = Frame.NO_ID;
+    // the client accepts sender IDs in private messages (see Capabilities.USER_IDS)
+    private volatile boolean userIds = false;
+    // the client unpacks BATCH frames (see Capabilities.BATCH)
+    private volatile boolean batch = false;
+    // changed by the receiver and by the completion of a cluster claim, hence compare-and-set
+    private final AtomicReference<State> state = new AtomicReference<>(NEW);
 
     enum State {
-        NEW, CONNECTED, DISCONNECTED;
+        NEW, CONNECTING, CONNECTED, DISCONNECTED;
     }
 
-    public ServerConnectionHandler(NetworkHandler.NetworkConnection<String> connection,
-                                   HashMap<String,ServerConnectionHandler> registry) {
+    public ServerConnectionHandler(NetworkHandler.NetworkConnection<Serializable> connection,
+                                   ServerContext context) {
         super(connection);
         Objects.requireNonNull(connection, "Connection must not be null");
-        Objects.requireNonNull(registry, "Registry must not be null");
-        this.connectionRegistry = registry;
-        Thread serverThread = new Thread() {
-            @Override
-            public void run() {
-                startReceiving();
-            }
-        };
-        serverThread.start();
-
+        Objects.requireNonNull(context, "Context must not be null");
+        this.connectionRegistry = context.getRegistry();
+        this.roomIndex = context.getRooms();
+        this.broadcastEngine = context.getBroadcastEngine();
+        this.history = context.getHistory();
+        this.mailbox = context.getMailbox();
+        this.cluster = context.getCluster();
+        this.compression = context.getConfig().isCompression();
+        this.rateLimiter = context.getRateLimiter();
+        this.frameLimit = rateLimiter.connectionBucket();
+        this.writer = broadcastEngine.createWriter(this, connection.isBlocking());
+        connectionRegistry.connectionOpened(this);
+        this.metrics = context.getMetrics().connectionOpened(this);
+        context.getHeartbeats().register(this);
+        startReceivingAsync(context.getConnectionExecutor());
     }
 
     public String getUserName() {
         return this.userName;
     }
 
+    /**
+     * Returns the numeric ID assigned to the user on connect.
+     * @return ID of the user, {@link Frame#NO_ID} if not connected
+     */
+    public int getUserId() {
+        return this.userId;
+    }
+
+    /**
+     * Creates an error frame sent by the server.
+     * @param receiver  name of the user receiving the error
+     * @param message   error message
+     * @return error frame
+     */
+    static Frame errorFrame(String receiver, String message) {
+        return new Frame(USER_NONE, receiver, DATA_TYPE_ERROR, message);
+    }
+
+    int getConnectionId() {
+        return connectionId;
+    }
+
+    String getRemoteAddress() {
+        return connection.getRemoteHost() + ":" + connection.getRemotePort();
+    }
+
+    long getBytesReceived() {
+        return connection.getBytesReceived();
+    }
+
+    long getBytesSent() {
+        return connection.getBytesSent();
+    }
+
+    /**
+     * Queues a frame to be sent asynchronously by the writer of this connection.
+     * @param frame encoded frame, may be shared with other connections
+     */
+    public void enqueue(EncodedFrame frame) {
+        writer.enqueue(frame);
+    }
+
+    /**
+     * Sends all frames asynchronously, including responses and errors, so they are written in order.
+     * @param frame  frame to send
+     */
+    @Override
+    protected void sendFrame(EncodedFrame frame) {
+        writer.enqueue(frame);
+    }
+
+    /**
+     * Sends all frames asynchronously, in order.
+     * @param frames  frames to send
+     */
+    @Override
+    protected void sendFrames(List<EncodedFrame> frames) {
+        for (EncodedFrame frame : frames) {
+            writer.enqueue(frame);
+        }
+    }
+
+    /**
+     * Writes a batch of frames to the connection. Called by the {@link ConnectionWriter} of this connection.
+     * @param frames  frames to write, in order
+     */
+    void write(List<EncodedFrame> frames) {
+        super.sendFrames(frames);
+        metrics.messagesWritten(frames.size());
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    boolean isHeartbeatSupported() {
+        return heartbeat;
+    }
+
+    boolean isBatchSupported() {
+        return batch;
+    }
+
+    boolean isHandshakePending() {
+        State current = state.get();
+        return current == NEW || current == CONNECTING;
+    }
+
+    boolean isOpen() {
+        return connection.isAvailable();
+    }
+
+    /**
+     * Sends a heartbeat request, the client answers with a PONG.
+     */
+    void ping() {
+        sendData(USER_NONE, userName, DATA_TYPE_PING, null);
+    }
+
+    /**
+     * Asks the client to disconnect because the server shuts down and suggests when to reconnect. The user is
+     * released at once, the connection is closed as soon as the frames queued so far have been written. Frames
+     * queued afterwards are discarded.
+     * @param reconnectDelayMillis  delay after which the client should reconnect
+     */
+    void drain(long reconnectDelayMillis) {
+        State previous = disconnect();
+        if (previous == DISCONNECTED) return;
+        if (previous == CONNECTED) releaseUser();
+        sendData(USER_NONE, userName, DATA_TYPE_DISCONNECT,
+            ReconnectHint.toPayload("Server shutting down", reconnectDelayMillis));
+        writer.closeWhenFlushed(this::stopReceiving);
+    }
+
+    boolean isWritable() {
+        return connection.isWritable();
+    }
+
+    void whenWritable(Runnable action) {
+        connection.whenWritable(action);
+    }
+
+    /**
+     * Returns the number of frames waiting in the outbound queue of this connection.
+     * @return current outbound queue depth
+     */
+    public int getOutboundQueueDepth() {
+        return writer.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of frames dropped because the client did not read fast enough.
+     * @return number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return writer.getDroppedFrames();
+    }
+
     /**
      * Starts connection handler with user specified message.
      */
@@ -58,6 +239,8 @@ public class ServerConnectionHandler extends ConnectionHandler {
     @Override
     public void stopConnectionHandler() {
         logger.log(Level.INFO, "Stopping Connection Handler for {0}", userName);
+        writer.close();
+        if (connectionRegistry.connectionClosed(this)) metrics.connectionClosed();
     }
 
     /**
@@ -73,22 +256,25 @@ public class ServerConnectionHandler extends ConnectionHandler {
      * @param e exception thrown with warning message
      */
     public void unregisteredConnectionHandler(Exception e) {
-        connectionRegistry.remove(userName);
+        if (disconnect() == CONNECTED) releaseUser();
+        leaveAllRooms();
         logger.log(Level.INFO, "Unregistered because client connection terminated: {0}, {1}",new Object[]{userName, e.getMessage()});
     }
 
     @Override
     /**
-     * Processes user inputs depending on the data type.
-     * @param data  user inputs
+     * Processes the received frame depending on the data type.
+     * @param frame  received frame
      */
-    public void processData(String data)  {
+    public void processData(Frame frame)  {
+        long start = System.nanoTime();
+        lastActivity = start;
         try {
-            parseData(data);
+            if (!allow(frameLimit, start, "requests")) return;
             // dispatch operation based on type parameter
-            switch (type) {
+            switch (frame.getType()) {
                 case DATA_TYPE_CONNECT:
-                    processDataConnect();
+                    processDataConnect(frame);
                     break;
                 case DATA_TYPE_CONFIRM:
                     processDataTypeConfirm();
@@ -97,66 +283,306 @@ public class ServerConnectionHandler extends ConnectionHandler {
                     processDataTypeDisconnect();
                     break;
                 case DATA_TYPE_MESSAGE:
-                    processDataTypeMessage();
+                    processDataTypeMessage(frame);
+                    break;
+                case DATA_TYPE_JOIN:
+                    processDataTypeJoin(frame);
+                    break;
+                case DATA_TYPE_LEAVE:
+                    processDataTypeLeave(frame);
+                    break;
+                case DATA_TYPE_ROOM:
+                    processDataTypeRoom(frame);
                     break;
                 case DATA_TYPE_ERROR:
-                    processDataTypeError();
+                    processDataTypeError(frame);
+                    break;
+                case DATA_TYPE_PING:
+                    sendData(USER_NONE, userName, DATA_TYPE_PONG, frame.getPayload());
+                    break;
+                case DATA_TYPE_PONG:
+                    // the activity has been recorded
                     break;
                 default:
-                    logger.log(Level.WARNING,"Unknown data type received: {0}",type);
+                    logger.log(Level.WARNING,"Unknown data type received: {0}", frame.getType());
                     break;
             }
         } catch(ChatProtocolException e) {
             logger.log(Level.WARNING,"Error while processing data {0}", e.getMessage());
             sendData(USER_NONE, userName, DATA_TYPE_ERROR, e.getMessage());
+        } finally {
+            metrics.messageReceived(System.nanoTime() - start);
         }
     }
 
-    private void processDataTypeError() {
-        logger.log(Level.WARNING,"Received error from client ({0}): {1}", new Object[]{sender, payload});
+    /**
+     * Checks a rate limit. The first rejected request is answered with an error, the following ones are dropped
+     * silently until the bucket accepts a request again, so the errors do not add to the load.
+     * @param bucket    bucket to take a token from
+     * @param now       current time of {@link System#nanoTime()}
+     * @param request   kind of the request, for the error message
+     * @return true if the request may be processed
+     */
+    private boolean allow(TokenBucket bucket, long now, String request) {
+        if (bucket.tryAcquire(now)) {
+            if (throttledBucket == bucket) throttledBucket = null;
+            return true;
+        }
+        metrics.frameRateLimited();
+        if (throttledBucket != bucket) {
+            throttledBucket = bucket;
+            logger.log(Level.FINE, "Rate limit of {0} exceeded by {1}", new Object[]{request, userName});
+            sendData(USER_NONE, userName, DATA_TYPE_ERROR, "Rate limit exceeded, dropping " + request);
+        }
+        return false;
+    }
+
+    private void processDataTypeError(Frame frame) {
+        logger.log(Level.WARNING,"Received error from client ({0}): {1}",
+            new Object[]{frame.getSender(), frame.getPayload()});
     }
 
-    private void processDataTypeMessage() throws ChatProtocolException {
-        if (state != CONNECTED)
-            throw new ChatProtocolException("Illegal state for message request: " + state);
-        if (USER_ALL.equals(reciever)) {
-            for (ServerConnectionHandler handler : connectionRegistry.values()) {
-                handler.sendData(sender, reciever, type, payload);
+    private void processDataTypeMessage(Frame frame) throws ChatProtocolException {
+        if (state.get() != CONNECTED)
+            throw new ChatProtocolException("Illegal state for message request: " + state.get());
+        // messages to all users cost work for every recipient, so they have their own budget
+        boolean toAll = USER_ALL.equals(frame.getReceiver()) && frame.getReceiverId() == Frame.NO_ID;
+        TokenBucket limit = toAll ? userLimits.broadcast : userLimits.privateMessages;
+        if (!allow(limit, System.nanoTime(), toAll ? "messages to all users" : "private messages")) return;
+        if (frame.getReceiverId() != Frame.NO_ID) {
+            if (processDataTypeMessageById(frame)) return;
+            if (frame.getReceiver() == null || frame.getReceiver().isEmpty()) {
+                // addressed by ID only, the client forgets the IDs it knows on errors
+                sendData(USER_NONE, userName, DATA_TYPE_ERROR, "Receiver has disconnected");
+                return;
             }
+            // the receiver has disconnected in the meantime, the message is delivered by name like any other
+            frame = new Frame(userName, frame.getReceiver(), frame.getType(), frame.getPayload());
+        }
+        // only the server sets user IDs, the frame may be forwarded to clients not supporting them
+        frame = withoutIds(frame);
+        String receiver = frame.getReceiver();
+        if (USER_ALL.equals(receiver)) {
+            // encoded once for the recipients and the history
+            EncodedFrame encoded = new EncodedFrame(frame);
+            metrics.broadcast(broadcastEngine.broadcast(BroadcastEngine.ALL_USERS, encoded,
+                connectionRegistry::handlers));
+            cluster.broadcast(encoded);
+            history.append(encoded);
         } else {
-            ServerConnectionHandler handler = connectionRegistry.get(reciever);
+            ServerConnectionHandler handler = connectionRegistry.get(receiver);
             if (handler != null) {
-                handler.sendData(sender, reciever, type, payload);
+                broadcastEngine.send(handler.userIds ? withSenderId(frame) : frame, handler);
+            } else if (cluster.isEnabled() && receiver != null && !receiver.isBlank()) {
+                // the node owning the receiver forwards the message or answers with an error
+                cluster.route(frame);
+            } else if (mailbox.isEnabled() && receiver != null && !receiver.isBlank()) {
+                mailbox.store(frame, error -> sendData(USER_NONE, userName, DATA_TYPE_ERROR, error));
             } else {
-                this.sendData(USER_NONE, userName, DATA_TYPE_ERROR, "Unknown User: " + reciever);
+                this.sendData(USER_NONE, userName, DATA_TYPE_ERROR, "Unknown User: " + receiver);
+            }
+        }
+    }
+
+    /**
+     * Forwards a private message addressed by the ID of the receiver. The handler is found by an array lookup, the
+     * names of the outgoing frame are the ones already registered. The receiver name of the frame is only compared,
+     * so a message is never delivered to another user than the one the client has addressed.
+     * @return true if the message has been sent, false if the ID is not valid anymore
+     */
+    private boolean processDataTypeMessageById(Frame frame) {
+        ServerConnectionHandler handler = connectionRegistry.get(frame.getReceiverId());
+        String receiver = frame.getReceiver();
+        if (handler == null || (receiver != null && !receiver.isEmpty() && !receiver.equals(handler.getUserName()))) {
+            return false;
+        }
+        broadcastEngine.send(new Frame(userName, handler.userIds ? userId : Frame.NO_ID,
+            handler.getUserName(), Frame.NO_ID, DATA_TYPE_MESSAGE, frame.getPayload()), handler);
+        return true;
+    }
+
+    private Frame withSenderId(Frame frame) {
+        return new Frame(frame.getSender(), userId, frame.getReceiver(), Frame.NO_ID, frame.getType(),
+            frame.getPayload());
+    }
+
+    private static Frame withoutIds(Frame frame) {
+        if (frame.getSenderId() == Frame.NO_ID && frame.getReceiverId() == Frame.NO_ID) return frame;
+        return new Frame(frame.getSender(), frame.getReceiver(), frame.getType(), frame.getPayload());
+    }
+
+    private void processDataTypeJoin(Frame frame) throws ChatProtocolException {
+        String room = requireRoom(frame, "join");
+        if (!roomIndex.join(room, this))
+            throw new ChatProtocolException("Already joined room: " + room);
+        rooms.add(room);
+        // the joining user is a member now, so it gets the notification as confirmation
+        Frame notification = new Frame(userName, room, DATA_TYPE_JOIN, userName + " joined " + room);
+        broadcastEngine.broadcast(BroadcastEngine.roomChannel(room), new EncodedFrame(notification),
+            () -> roomIndex.members(room));
+    }
+
+    private void processDataTypeLeave(Frame frame) throws ChatProtocolException {
+        String room = requireRoom(frame, "leave");
+        if (!rooms.remove(room) || !roomIndex.leave(room, this))
+            throw new ChatProtocolException("Not a member of room: " + room);
+        Frame notification = new Frame(userName, room, DATA_TYPE_LEAVE, userName + " left " + room);
+        broadcastEngine.broadcast(BroadcastEngine.roomChannel(room), new EncodedFrame(notification),
+            () -> roomIndex.members(room));
+        broadcastEngine.send(notification, this);
+    }
+
+    private void processDataTypeRoom(Frame frame) throws ChatProtocolException {
+        String room = requireRoom(frame, "room message");
+        if (!rooms.contains(room))
+            throw new ChatProtocolException("Not a member of room: " + room);
+        if (!allow(userLimits.broadcast, System.nanoTime(), "room messages")) return;
+        // only the members of the room are visited, not all connected users
+        metrics.broadcast(broadcastEngine.broadcast(BroadcastEngine.roomChannel(room),
+            new EncodedFrame(withoutIds(frame)), () -> roomIndex.members(room)));
+    }
+
+    private String requireRoom(Frame frame, String request) throws ChatProtocolException {
+        if (state.get() != CONNECTED)
+            throw new ChatProtocolException("Illegal state for " + request + " request: " + state.get());
+        String room = frame.getReceiver();
+        if (room == null || room.isBlank())
+            throw new ChatProtocolException("Missing room for " + request + " request");
+        return room;
+    }
+
+    /**
+     * Leaves all rooms joined by this connection and notifies their remaining members.
+     */
+    private void leaveAllRooms() {
+        for (String room : rooms) {
+            rooms.remove(room);
+            if (roomIndex.leave(room, this)) {
+                Frame notification = new Frame(userName, room, DATA_TYPE_LEAVE, userName + " left " + room);
+                broadcastEngine.broadcast(BroadcastEngine.roomChannel(room), new EncodedFrame(notification),
+                    () -> roomIndex.members(room));
             }
         }
     }
 
     private void processDataTypeDisconnect() throws ChatProtocolException {
-        if (state == DISCONNECTED)
-            throw new ChatProtocolException("Illegal state for disconnect request: " + state);
-        if (state == CONNECTED) {
-            connectionRegistry.remove(this.userName);
+        State previous = disconnect();
+        if (previous == DISCONNECTED)
+            throw new ChatProtocolException("Illegal state for disconnect request: " + previous);
+        if (previous == CONNECTED) {
+            releaseUser();
+            leaveAllRooms();
         }
         sendData(USER_NONE, userName, DATA_TYPE_CONFIRM, "Confirm disconnect of " + userName);
-        this.state = DISCONNECTED;
-        this.stopReceiving();
+        writer.closeWhenFlushed(this::stopReceiving);
+    }
+
+    /**
+     * Changes the state to DISCONNECTED. Only the caller changing it from CONNECTED releases the user; a pending
+     * connect finds the state changed and releases the name itself.
+     * @return the previous state
+     */
+    private State disconnect() {
+        while (true) {
+            State current = state.get();
+            if (current == DISCONNECTED || state.compareAndSet(current, DISCONNECTED)) return current;
+        }
     }
 
     private void processDataTypeConfirm() {
         logger.info("Not expecting to receive a CONFIRM request from client");
     }
 
-    private void processDataConnect() throws ChatProtocolException {
-        if (this.state != NEW)
-            throw new ChatProtocolException("Illegal state for connect request: " + state);
+    private void processDataConnect(Frame frame) throws ChatProtocolException {
+        State current = state.get();
+        if (current != NEW || !state.compareAndSet(NEW, CONNECTING))
+            throw new ChatProtocolException("Illegal state for connect request: " + current);
+        String sender = frame.getSender();
         if (sender == null || sender.isBlank()) sender = this.userName;
-        if (connectionRegistry.containsKey(sender))
+        if (!connectionRegistry.claim(sender, this)) {
+            state.compareAndSet(CONNECTING, NEW);
             throw new ChatProtocolException("User name already taken: " + sender);
-        this.userName = sender;
-        connectionRegistry.put(userName, this);
+        }
+        String name = sender;
+        Capabilities capabilities = Capabilities.parse(frame.getPayload());
+        // the name must also be free on the other nodes of a cluster, the owning node answers asynchronously
+        // so the receiving thread (e.g. an event loop) is not blocked by the round trip
+        CompletableFuture<Boolean> claim = cluster.claim(name);
+        claim.whenComplete((claimed, error) -> completeConnect(name, capabilities, claimed, error));
+    }
+
+    /**
+     * Completes a connect request once the user name has been claimed in the cluster: registers the user,
+     * confirms the connect and sends the history and the stored messages. Runs on the receiving thread if the
+     * claim completed at once, otherwise on the thread completing the claim.
+     */
+    private void completeConnect(String name, Capabilities capabilities, Boolean claimed, Throwable error) {
+        if (error != null || !claimed) {
+            connectionRegistry.release(name, this);
+            rejectConnect(error != null ? causeMessage(error) : "User name already taken: " + name);
+            return;
+        }
+        int id;
+        try {
+            id = connectionRegistry.assignId(this);
+        } catch (IllegalStateException e) {
+            if (connectionRegistry.release(name, this)) cluster.release(name);
+            rejectConnect(e.getMessage());
+            return;
+        }
+        this.userName = name;
+        this.userId = id;
+        this.userLimits = rateLimiter.forUser(name);
+        if (capabilities.supports(Capabilities.BINARY_FRAMES)) {
+            wireFormat = compression && capabilities.supports(Capabilities.DEFLATE)
+                ? WireFormat.BINARY_COMPRESSED : WireFormat.BINARY;
+            userIds = capabilities.supports(Capabilities.USER_IDS);
+            batch = capabilities.supports(Capabilities.BATCH);
+        }
+        heartbeat = capabilities.supports(Capabilities.HEARTBEAT);
+        if (!state.compareAndSet(CONNECTING, CONNECTED)) {
+            // disconnected while the claim was pending
+            releaseUser();
+            return;
+        }
         sendData(USER_NONE, userName, DATA_TYPE_CONFIRM, "Registration successfull for " + userName);
-        this.state = CONNECTED;
+        replayHistory();
+        mailbox.deliver(userName, this);
+        cluster.fetchMailbox(userName);
+    }
+
+    private void rejectConnect(String message) {
+        if (state.compareAndSet(CONNECTING, NEW)) {
+            logger.log(Level.WARNING, "Error while processing data {0}", message);
+            sendData(USER_NONE, userName, DATA_TYPE_ERROR, message);
+        }
+    }
+
+    private static String causeMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage();
+    }
+
+    /**
+     * Releases the ID and the name of the user, the name also on the other nodes of a cluster.
+     */
+    private void releaseUser() {
+        connectionRegistry.releaseId(userId, this);
+        if (connectionRegistry.release(userName, this)) {
+            cluster.release(userName);
+        }
+    }
+
+    /**
+     * Sends the latest messages to all users to a newly connected user, after the confirmation of the connect.
+     */
+    private void replayHistory() {
+        List<Frame> messages = history.replay();
+        if (messages.isEmpty()) return;
+        List<EncodedFrame> frames = new ArrayList<>(messages.size());
+        for (Frame message : messages) {
+            frames.add(new EncodedFrame(message));
+        }
+        sendFrames(frames);
     }
 }
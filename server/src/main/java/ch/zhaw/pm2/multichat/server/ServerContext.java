@@ -0,0 +1,111 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.ConnectionExecutor;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared state and services of a server, used by all its connection handlers.
+ */
+public class ServerContext {
+    private static final Logger logger = Logger.getLogger(ServerContext.class.getCanonicalName());
+    private final ServerConfig config;
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+    private final RoomIndex rooms = new RoomIndex();
+    private final BroadcastEngine broadcastEngine;
+    private final ServerMetrics metrics;
+    private final MessageHistory history;
+    private final OfflineMailbox mailbox;
+    private final ClusterNode cluster;
+    private final HeartbeatMonitor heartbeats;
+    private final RateLimiter rateLimiter;
+    private final ConnectionExecutor connectionExecutor;
+
+    /**
+     * Creates the shared state of a server.
+     * @param config    tuning options of the server
+     * @throws IOException if the message history, the mailboxes or the cluster port can not be opened
+     */
+    public ServerContext(ServerConfig config) throws IOException {
+        this.config = config;
+        this.history = MessageHistory.open(config);
+        this.mailbox = OfflineMailbox.open(config, registry);
+        this.connectionExecutor = connectionExecutor(config.getThreads());
+        this.broadcastEngine = new BroadcastEngine(config, connectionExecutor);
+        this.metrics = new ServerMetrics(registry, rooms, config);
+        this.cluster = ClusterNode.open(config, registry, broadcastEngine, history, mailbox);
+        this.heartbeats = HeartbeatMonitor.open(config, metrics);
+        this.rateLimiter = new RateLimiter(config, registry);
+    }
+
+    private static ConnectionExecutor connectionExecutor(ServerConfig.Threads threads) {
+        if (threads == ServerConfig.Threads.VIRTUAL) {
+            if (ConnectionExecutor.isVirtualThreadSupported()) {
+                logger.info("Receiving and writing on virtual threads");
+                return ConnectionExecutor.virtualThreads();
+            }
+            logger.log(Level.WARNING, "Virtual threads not supported by Java {0}, using platform threads",
+                Runtime.version().feature());
+        }
+        return ConnectionExecutor.PLATFORM;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public ConnectionRegistry getRegistry() {
+        return registry;
+    }
+
+    public RoomIndex getRooms() {
+        return rooms;
+    }
+
+    public BroadcastEngine getBroadcastEngine() {
+        return broadcastEngine;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public OfflineMailbox getMailbox() {
+        return mailbox;
+    }
+
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
+    public HeartbeatMonitor getHeartbeats() {
+        return heartbeats;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Stops the services of the server: the heartbeats, the cluster links, the writer pool, the JMX registration,
+     * the message history and the mailboxes.
+     */
+    public void shutdown() {
+        heartbeats.close();
+        cluster.close();
+        broadcastEngine.shutdown();
+        metrics.unregister();
+        history.close();
+        mailbox.close();
+    }
+}
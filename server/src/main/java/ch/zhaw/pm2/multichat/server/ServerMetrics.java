@@ -0,0 +1,282 @@
+package ch.zhaw.pm2.multichat.server;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instrumentation of the server: traffic, broadcast fan-out, dispatch latency and outbound queues, published as JMX
+ * MBeans (see {@link ServerMetricsMBean} and {@link ConnectionMetricsMBean}).
+ * <p>The counters are updated on every message and are therefore striped ({@link LongAdder}) instead of
+ * synchronized. Values which are already tracked by the connections (bytes, queue depth, dropped frames) are only
+ * summed up when they are read, over the open connections of the {@link ConnectionRegistry}. The values of closed
+ * connections are kept in separate totals.</p>
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final Logger logger = Logger.getLogger(ServerMetrics.class.getCanonicalName());
+    private static final String DOMAIN = "ch.zhaw.pm2.multichat";
+
+    private final ConnectionRegistry registry;
+    private final RoomIndex rooms;
+    private final boolean connectionMBeans;
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder closedBytesIn = new LongAdder();
+    private final LongAdder closedBytesOut = new LongAdder();
+    private final LongAdder closedDroppedFrames = new LongAdder();
+    private final LongAdder evictedConnections = new LongAdder();
+    private final LongAdder rateLimitedFrames = new LongAdder();
+    private final StripedHistogram broadcastFanOut = new StripedHistogram();
+    private final StripedHistogram dispatchLatency = new StripedHistogram();
+    private volatile String objectNamePrefix;
+
+    /**
+     * Creates the metrics of a server.
+     * @param registry  registry of the connected users
+     * @param rooms     index of the chat rooms
+     * @param config    server configuration: whether to register an MBean per connection
+     */
+    public ServerMetrics(ConnectionRegistry registry, RoomIndex rooms, ServerConfig config) {
+        this.registry = registry;
+        this.rooms = rooms;
+        this.connectionMBeans = config.isConnectionMBeans();
+    }
+
+    /**
+     * Registers the MBean of the server with the platform MBean server. Failures are logged, the server runs
+     * without JMX then.
+     * @param port  port of the server, used to distinguish several servers in the same JVM
+     */
+    void register(int port) {
+        String prefix = DOMAIN + ":port=" + port + ",";
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(prefix + "type=Server"));
+            objectNamePrefix = prefix;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Failed to register server MBean: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the MBeans of the server and of all open connections.
+     */
+    void unregister() {
+        String prefix = objectNamePrefix;
+        if (prefix == null) return;
+        objectNamePrefix = null;
+        unregister(prefix + "type=Server");
+        for (ServerConnectionHandler handler : registry.openConnections()) {
+            unregister(prefix + "type=Connection,id=" + handler.getConnectionId());
+        }
+    }
+
+    /**
+     * Creates the metrics of a new connection and registers its MBean, if enabled.
+     * @param handler   handler of the new connection
+     * @return the metrics of the connection
+     */
+    ConnectionMetrics connectionOpened(ServerConnectionHandler handler) {
+        ConnectionMetrics metrics = new ConnectionMetrics(this, handler);
+        connectionsOpened.increment();
+        String prefix = objectNamePrefix;
+        if (connectionMBeans && prefix != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName(prefix + "type=Connection,id=" + handler.getConnectionId()));
+            } catch (JMException e) {
+                logger.log(Level.FINE, "Failed to register connection MBean: {0}", e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Keeps the traffic of a connection, which has been removed from the open connections, in the totals.
+     * @param handler   handler of the closed connection
+     */
+    void connectionClosed(ServerConnectionHandler handler) {
+        connectionsClosed.increment();
+        closedBytesIn.add(handler.getBytesReceived());
+        closedBytesOut.add(handler.getBytesSent());
+        closedDroppedFrames.add(handler.getDroppedFrames());
+        String prefix = objectNamePrefix;
+        if (connectionMBeans && prefix != null) {
+            unregister(prefix + "type=Connection,id=" + handler.getConnectionId());
+        }
+    }
+
+    void messageReceived(long dispatchNanos) {
+        messagesIn.increment();
+        dispatchLatency.record(TimeUnit.NANOSECONDS.toMicros(dispatchNanos));
+    }
+
+    void messagesWritten(int count) {
+        messagesOut.add(count);
+    }
+
+    void broadcast(int recipients) {
+        broadcastFanOut.record(recipients);
+    }
+
+    void connectionEvicted() {
+        evictedConnections.increment();
+    }
+
+    void frameRateLimited() {
+        rateLimitedFrames.increment();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return registry.openConnections().size();
+    }
+
+    @Override
+    public int getRegisteredUsers() {
+        return registry.size();
+    }
+
+    @Override
+    public int getRooms() {
+        return rooms.size();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        long bytes = closedBytesIn.sum();
+        for (ServerConnectionHandler handler : registry.openConnections()) {
+            bytes += handler.getBytesReceived();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getBytesOut() {
+        long bytes = closedBytesOut.sum();
+        for (ServerConnectionHandler handler : registry.openConnections()) {
+            bytes += handler.getBytesSent();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return broadcastFanOut.getCount();
+    }
+
+    @Override
+    public double getBroadcastFanOutMean() {
+        return broadcastFanOut.getMean();
+    }
+
+    @Override
+    public long getBroadcastFanOutP99() {
+        return broadcastFanOut.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getBroadcastFanOutMax() {
+        return broadcastFanOut.getMax();
+    }
+
+    @Override
+    public double getDispatchLatencyMeanMicros() {
+        return dispatchLatency.getMean();
+    }
+
+    @Override
+    public long getDispatchLatencyP50Micros() {
+        return dispatchLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getDispatchLatencyP99Micros() {
+        return dispatchLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getDispatchLatencyP999Micros() {
+        return dispatchLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getDispatchLatencyMaxMicros() {
+        return dispatchLatency.getMax();
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+        long depth = 0;
+        for (ServerConnectionHandler handler : registry.openConnections()) {
+            depth += handler.getOutboundQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public int getMaxOutboundQueueDepth() {
+        int max = 0;
+        for (ServerConnectionHandler handler : registry.openConnections()) {
+            max = Math.max(max, handler.getOutboundQueueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        long dropped = closedDroppedFrames.sum();
+        for (ServerConnectionHandler handler : registry.openConnections()) {
+            dropped += handler.getDroppedFrames();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getEvictedConnections() {
+        return evictedConnections.sum();
+    }
+
+    @Override
+    public long getRateLimitedFrames() {
+        return rateLimitedFrames.sum();
+    }
+
+    private void unregister(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.log(Level.FINE, "Failed to unregister MBean {0}: {1}", new Object[]{name, e.getMessage()});
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ch.zhaw.pm2.multichat.server;
+
+/**
+ * JMX management interface of the {@link ServerMetrics}, registered as
+ * {@code ch.zhaw.pm2.multichat:type=Server,port=<port>}.
+ * Counters are totals since the server has been started; rates are derived by the monitoring tool.
+ */
+public interface ServerMetricsMBean {
+
+    /** Number of currently open client connections. */
+    int getOpenConnections();
+
+    /** Number of currently registered users. */
+    int getRegisteredUsers();
+
+    /** Number of chat rooms with at least one member. */
+    int getRooms();
+
+    /** Number of accepted client connections. */
+    long getConnectionsOpened();
+
+    /** Number of closed client connections. */
+    long getConnectionsClosed();
+
+    /** Number of frames received from the clients. */
+    long getMessagesIn();
+
+    /** Number of frames written to the clients, each recipient of a broadcast counts. */
+    long getMessagesOut();
+
+    /** Number of bytes received from the clients. */
+    long getBytesIn();
+
+    /** Number of bytes written to the clients. */
+    long getBytesOut();
+
+    /** Number of messages sent to all users or to a room. */
+    long getBroadcasts();
+
+    /** Average number of recipients of a broadcast or room message. */
+    double getBroadcastFanOutMean();
+
+    /** 99th percentile of the number of recipients of a broadcast or room message. */
+    long getBroadcastFanOutP99();
+
+    /** Maximum number of recipients of a broadcast or room message. */
+    long getBroadcastFanOutMax();
+
+    /** Average time to dispatch a received frame (until it is queued for all recipients) in microseconds. */
+    double getDispatchLatencyMeanMicros();
+
+    /** Median dispatch time of a received frame in microseconds. */
+    long getDispatchLatencyP50Micros();
+
+    /** 99th percentile of the dispatch time of a received frame in microseconds. */
+    long getDispatchLatencyP99Micros();
+
+    /** 99.9th percentile of the dispatch time of a received frame in microseconds. */
+    long getDispatchLatencyP999Micros();
+
+    /** Maximum dispatch time of a received frame in microseconds. */
+    long getDispatchLatencyMaxMicros();
+
+    /** Number of frames currently waiting in the outbound queues of all connections. */
+    long getOutboundQueueDepth();
+
+    /** Largest number of frames currently waiting in the outbound queue of a single connection. */
+    int getMaxOutboundQueueDepth();
+
+    /** Number of frames dropped because clients did not read fast enough. */
+    long getDroppedFrames();
+
+    /** Number of connections closed because they did not answer a heartbeat or complete the handshake in time. */
+    long getEvictedConnections();
+
+    /** Number of frames rejected because a connection or user exceeded its rate limit. */
+    long getRateLimitedFrames();
+}
@@ -0,0 +1,151 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel running many timeouts on a single thread.
+ * <p>The wheel is an array of buckets, each a linked list of timeouts. The thread advances one bucket per tick and
+ * runs the timeouts of the bucket whose deadline has passed; the others stay for a later round. Scheduling and
+ * cancelling are O(1), independent of the number of timeouts, so a timeout per connection is cheap also with many
+ * thousand connections. Timeouts fire at most one tick late and never early.</p>
+ * <p>Timeouts scheduled by other threads are handed over through a lock-free queue, timeouts scheduled by a task of
+ * the wheel are inserted directly. Cancelled timeouts are only marked and removed when their bucket is visited.
+ * Tasks run on the wheel thread and must not block.</p>
+ */
+final class TimingWheel {
+    private static final Logger logger = Logger.getLogger(TimingWheel.class.getCanonicalName());
+
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    // first tick a new timeout may be placed on, only accessed by the worker
+    private long minTick = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the wheel and starts its thread.
+     * @param name          name of the thread
+     * @param tickMillis    duration of a tick, the resolution of the timeouts
+     * @param size          number of buckets, rounded up to a power of two
+     */
+    TimingWheel(String name, long tickMillis, int size) {
+        int buckets = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.buckets = new Timeout[buckets];
+        this.mask = buckets - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task.
+     * @param task          task to run on the wheel thread, must not block
+     * @param delayMillis   time until the task is run
+     * @return the timeout, to cancel it
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        if (Thread.currentThread() == worker) {
+            insert(timeout);
+        } else {
+            pending.add(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Stops the thread, the timeouts not yet expired are discarded.
+     */
+    void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!closed) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            minTick = tick;
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                insert(timeout);
+            }
+            expire(tick);
+            tick++;
+        }
+    }
+
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        Timeout timeout = buckets[index];
+        buckets[index] = null;
+        // tasks rescheduling themselves are placed after the current tick
+        minTick = tick + 1;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.cancelled) {
+                // dropped
+            } else if (timeout.deadlineTick > tick) {
+                // a later round
+                timeout.next = buckets[index];
+                buckets[index] = timeout;
+            } else {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Timeout task failed", e);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        if (timeout.cancelled) return;
+        // ticks are processed at their end, so a timeout never fires before its deadline
+        timeout.deadlineTick = Math.max(minTick, (timeout.deadlineNanos - startNanos) / tickNanos);
+        int index = (int) (timeout.deadlineTick & mask);
+        timeout.next = buckets[index];
+        buckets[index] = timeout;
+    }
+
+    /**
+     * Task scheduled on the wheel.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long deadlineTick;
+        private Timeout next;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancels the timeout, the task is not run if it has not started yet.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
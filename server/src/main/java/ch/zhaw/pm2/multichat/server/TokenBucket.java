@@ -0,0 +1,54 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, allowing a burst of requests and then a steady rate.
+ * <p>Instead of a token count and a refill time, the bucket keeps a single value: the theoretical arrival time of the
+ * next request if requests arrived at exactly the allowed rate (generic cell rate algorithm). Each accepted request
+ * moves it one interval ahead, a request is rejected if this would put it more than the burst ahead of now. This is
+ * equivalent to a bucket of burst tokens refilled at the rate, but the state fits into one {@link AtomicLong}, so a
+ * check is one compare-and-set without locks or allocation, also if several threads use the same bucket.</p>
+ */
+final class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextArrival;
+
+    /**
+     * Creates a full bucket.
+     * @param ratePerSecond requests allowed per second, 0 for no limit
+     * @param burst         requests allowed at once, at least 1
+     */
+    TokenBucket(int ratePerSecond, int burst) {
+        this.intervalNanos = ratePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / ratePerSecond : 0;
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.nextArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available.
+     * @param now   current time of {@link System#nanoTime()}
+     * @return true if the request is allowed, false if it exceeds the rate
+     */
+    boolean tryAcquire(long now) {
+        if (intervalNanos == 0) return true;
+        while (true) {
+            long current = nextArrival.get();
+            // an idle bucket does not save up more than the burst
+            long next = (current - now < 0 ? now : current) + intervalNanos;
+            if (next - now > burstNanos) return false;
+            if (nextArrival.compareAndSet(current, next)) return true;
+        }
+    }
+
+    /**
+     * Indicates whether the bucket has been refilled completely, so a new bucket would behave the same.
+     * @param now   current time of {@link System#nanoTime()}
+     * @return true if all tokens are available
+     */
+    boolean isFull(long now) {
+        return nextArrival.get() - now <= 0;
+    }
+}
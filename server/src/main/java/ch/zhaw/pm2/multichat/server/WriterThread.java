@@ -0,0 +1,78 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.ConnectionExecutor;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated writer thread of a single blocking connection.
+ * <p>A blocking socket write does not return before the client has read enough data, so it must not be done by a
+ * thread of the shared writer pool: a few clients not reading would block the whole pool and stall the writers of
+ * all other connections. The writer of a blocking connection therefore runs in its own thread, started by the
+ * {@link ConnectionExecutor} of the server (a virtual thread if configured), and only blocks itself. Its queue
+ * still fills up and is handled according to the {@link OverflowPolicy}.</p>
+ */
+final class WriterThread implements Executor {
+    private static final Logger logger = Logger.getLogger(WriterThread.class.getCanonicalName());
+    private static final Runnable STOP = () -> {};
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private volatile boolean stopped = false;
+
+    /**
+     * Starts the thread.
+     * @param executor  executor starting the thread
+     * @param name      name of the thread
+     */
+    WriterThread(ConnectionExecutor executor, String name) {
+        executor.start(name, this::loop);
+    }
+
+    /**
+     * Queues a task to be run by the thread.
+     * @param task  task to run
+     * @throws RejectedExecutionException if the thread has been stopped
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (stopped) {
+            throw new RejectedExecutionException("Writer thread stopped");
+        }
+        tasks.add(task);
+        // queued behind STOP by a concurrent stop(): the loop will not run it anymore
+        if (stopped && tasks.remove(task)) {
+            throw new RejectedExecutionException("Writer thread stopped");
+        }
+    }
+
+    /**
+     * Ends the thread once the tasks queued so far have run. Called when the connection is closed, which also
+     * ends a write blocked on its socket. Tasks queued afterwards are rejected.
+     */
+    void stop() {
+        stopped = true;
+        tasks.add(STOP);
+    }
+
+    private void loop() {
+        try {
+            Runnable task;
+            while ((task = tasks.take()) != STOP) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to write to connection", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tasks.clear();
+        }
+    }
+}
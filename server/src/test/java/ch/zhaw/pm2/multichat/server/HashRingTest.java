@@ -0,0 +1,71 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the consistent hash ring used to find the cluster node owning a user name.
+ */
+class HashRingTest {
+    private static final List<String> NODES = List.of("10.0.0.1:28001", "10.0.0.2:28001", "10.0.0.3:28001");
+    private static final int KEYS = 30_000;
+
+    @Test
+    void singleNodeOwnsAll() {
+        HashRing ring = new HashRing(List.of("localhost:28001"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, ring.nodeFor("user" + i));
+        }
+    }
+
+    @Test
+    void sameNodesSameOwner() {
+        HashRing ring = new HashRing(NODES);
+        HashRing other = new HashRing(List.copyOf(NODES));
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(ring.nodeFor("user" + i), other.nodeFor("user" + i));
+        }
+    }
+
+    @Test
+    void keysAreSpread() {
+        HashRing ring = new HashRing(NODES);
+        int[] counts = new int[NODES.size()];
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.nodeFor("user" + i)]++;
+        }
+        for (int count : counts) {
+            // a third each, with some tolerance for the virtual nodes
+            assertTrue(count > KEYS / 4 && count < KEYS / 2.4, "keys per node: " + count);
+        }
+    }
+
+    @Test
+    void addedNodeOnlyTakesKeys() {
+        HashRing ring = new HashRing(NODES);
+        List<String> moreNodes = List.of(NODES.get(0), NODES.get(1), NODES.get(2), "10.0.0.4:28001");
+        HashRing larger = new HashRing(moreNodes);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user" + i;
+            int owner = larger.nodeFor(key);
+            if (owner != ring.nodeFor(key)) {
+                // keys only move to the new node, never between the existing ones
+                assertEquals(3, owner, key);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS / 6 && moved < KEYS / 3, "moved keys: " + moved);
+    }
+
+    @Test
+    void hashIsStable() {
+        // all nodes must agree, also across versions and platforms
+        assertEquals(HashRing.hash("alice"), HashRing.hash("alice"));
+        assertNotEquals(HashRing.hash("alice"), HashRing.hash("alicf"));
+        assertNotEquals(HashRing.hash("user1"), HashRing.hash("user2"));
+    }
+}
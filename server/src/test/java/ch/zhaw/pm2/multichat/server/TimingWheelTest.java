@@ -0,0 +1,112 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the timing wheel. The wheel runs on its own thread, so the tests wait for the timeouts with a generous
+ * upper limit and only check that they never fire early.
+ */
+class TimingWheelTest {
+    private static final long TICK_MILLIS = 10;
+    private final TimingWheel wheel = new TimingWheel("test-wheel", TICK_MILLIS, 8);
+
+    @AfterEach
+    void close() {
+        wheel.close();
+    }
+
+    @Test
+    void runsNotBeforeDeadline() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong elapsed = new AtomicLong();
+        long start = System.nanoTime();
+        wheel.schedule(() -> {
+            elapsed.set(System.nanoTime() - start);
+            done.countDown();
+        }, 50);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(50), "elapsed " + elapsed.get());
+    }
+
+    @Test
+    void runsAfterSeveralRounds() throws InterruptedException {
+        // 8 buckets of 10 ms: the timeout passes its bucket twice before it is due
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong elapsed = new AtomicLong();
+        long start = System.nanoTime();
+        wheel.schedule(() -> {
+            elapsed.set(System.nanoTime() - start);
+            done.countDown();
+        }, 250);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(250), "elapsed " + elapsed.get());
+    }
+
+    @Test
+    void runsManyTimeouts() throws InterruptedException {
+        int count = 1000;
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger early = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            long delay = i % 200;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            wheel.schedule(() -> {
+                if (System.nanoTime() < deadline) early.incrementAndGet();
+                done.countDown();
+            }, delay);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+    }
+
+    @Test
+    void cancelledTimeoutDoesNotRun() throws InterruptedException {
+        AtomicBoolean cancelledRun = new AtomicBoolean(false);
+        CountDownLatch done = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(() -> cancelledRun.set(true), 20);
+        timeout.cancel();
+        wheel.schedule(done::countDown, 100);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertFalse(cancelledRun.get());
+    }
+
+    @Test
+    void taskCanReschedule() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(3);
+        Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            done.countDown();
+            if (done.getCount() > 0) wheel.schedule(task[0], 0);
+        };
+        wheel.schedule(task[0], 10);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            throw new IllegalStateException("expected by the test");
+        }, 10);
+        wheel.schedule(done::countDown, 50);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void closeDiscardsTimeouts() throws InterruptedException {
+        AtomicBoolean run = new AtomicBoolean(false);
+        wheel.schedule(() -> run.set(true), 50);
+        wheel.close();
+        Thread.sleep(150);
+        assertFalse(run.get());
+    }
+}
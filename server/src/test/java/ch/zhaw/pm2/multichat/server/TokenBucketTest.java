@@ -0,0 +1,99 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the token bucket, using explicit points in time instead of waiting.
+ */
+class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstThenReject() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    void refillAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + SECOND / 20));
+        assertTrue(bucket.tryAcquire(now + SECOND / 10));
+        assertFalse(bucket.tryAcquire(now + SECOND / 10));
+    }
+
+    @Test
+    void steadyRate() {
+        TokenBucket bucket = new TokenBucket(100, 5);
+        long now = System.nanoTime();
+        int accepted = 0;
+        // one request every millisecond during one second
+        for (int i = 0; i < 1000; i++) {
+            if (bucket.tryAcquire(now + i * SECOND / 1000)) accepted++;
+        }
+        assertTrue(accepted >= 100 && accepted <= 105, "accepted " + accepted);
+    }
+
+    @Test
+    void idleBucketSavesOnlyTheBurst() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long later = System.nanoTime() + 60 * SECOND;
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    void full() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = System.nanoTime();
+        assertTrue(bucket.isFull(now));
+        bucket.tryAcquire(now);
+        assertFalse(bucket.isFull(now));
+        assertFalse(bucket.isFull(now + SECOND / 20));
+        assertTrue(bucket.isFull(now + SECOND / 10));
+    }
+
+    @Test
+    void noLimit() {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+    }
+
+    @Test
+    void concurrentRequests() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 1000);
+        long now = System.nanoTime();
+        int[] accepted = new int[4];
+        Thread[] threads = new Thread[accepted.length];
+        for (int t = 0; t < threads.length; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(now)) accepted[index]++;
+                }
+            });
+            threads[t].start();
+        }
+        int total = 0;
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            total += accepted[t];
+        }
+        assertEquals(1000, total);
+    }
+}